@@ -3,6 +3,16 @@ package me.akrasenkov.transfer;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.google.inject.name.Named;
+import me.akrasenkov.transfer.binary.TransferServiceBinaryApi;
+import me.akrasenkov.transfer.lane.Lane;
+import me.akrasenkov.transfer.recording.FlightRecorder;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.warmup.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -12,27 +22,93 @@ public class App implements Runnable {
 
     private Injector injector;
     private int port;
+    private int binaryPort;
 
     @Inject
     private TransferServiceRestApi restApi;
 
+    @Inject
+    private TransferServiceBinaryApi binaryApi;
+
+    @Inject
+    private FlightRecorder flightRecorder;
+
+    @Inject
+    private Warmup warmup;
+
+    @Inject
+    private AccountStateStorage storage;
+
+    @Inject
+    @Named(AppModule.READ_LANE)
+    private Lane readLane;
+
+    @Inject
+    @Named(AppModule.WRITE_LANE)
+    private Lane writeLane;
+
     public static void main(String[] args) {
         if (args.length == 0) throw new IllegalArgumentException("App port not provided");
         int port = Integer.valueOf(checkNotNull(args[0]));
-        Injector injector = Guice.createInjector(new AppModule());
-        instance = new App(port, injector);
+        // Binary API port is optional, binary API is not served if not provided
+        int binaryPort = args.length > 1 ? Integer.valueOf(args[1]) : 0;
+        Injector injector = Guice.createInjector(new AppModule(System.getProperties()));
+        instance = new App(port, binaryPort, injector);
         instance.run();
     }
 
     public App(int port, Injector injector) {
+        this(port, 0, injector);
+    }
+
+    public App(int port, int binaryPort, Injector injector) {
         this.port = port;
+        this.binaryPort = binaryPort;
         this.injector = injector;
     }
 
     @Override
     public void run() {
         injector.injectMembers(this);
+        // Started before APIs, so they serve the recording and their first requests are recorded
+        flightRecorder.start();
         restApi.init(port);
+        if (binaryPort > 0) {
+            binaryApi.init(binaryPort);
+        }
+        // APIs already serve, so `/ready` answers not ready while warming up, rather than refusing connections
+        try {
+            warmup.run();
+        } catch (IOException e) {
+            throw new IllegalStateException("Warmup failed", e);
+        }
+    }
+
+    /**
+     * @return port the RESTful API is served on, the one it was given or a free one if given {@code 0}
+     */
+    public int getPort() {
+        return restApi.getPort();
+    }
+
+    /**
+     * Stop serving APIs and recording, and close lanes and storage, so their threads stop and files are closed.
+     */
+    public void stop() {
+        restApi.stop();
+        if (binaryPort > 0) {
+            binaryApi.stop();
+        }
+        flightRecorder.close();
+        readLane.close();
+        writeLane.close();
+        if (storage instanceof Closeable) {
+            try {
+                ((Closeable) storage).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
 }
@@ -1,28 +1,306 @@
 package me.akrasenkov.transfer;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.inject.AbstractModule;
+import com.google.inject.Key;
+import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import me.akrasenkov.transfer.binary.TransferServiceBinaryApi;
+import me.akrasenkov.transfer.feed.ChangeFeed;
+import me.akrasenkov.transfer.id.IdGenerator;
+import me.akrasenkov.transfer.id.impl.RandomUuidIdGenerator;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.lane.Lane;
 import me.akrasenkov.transfer.provider.AccountStateProvider;
+import me.akrasenkov.transfer.provider.AccountStatsProvider;
 import me.akrasenkov.transfer.provider.TransferServiceProvider;
 import me.akrasenkov.transfer.provider.impl.AccountStateProviderImpl;
+import me.akrasenkov.transfer.provider.impl.AccountStatsProviderImpl;
+import me.akrasenkov.transfer.provider.impl.IssuedFunds;
 import me.akrasenkov.transfer.provider.impl.TransferServiceProviderImpl;
+import me.akrasenkov.transfer.recording.FlightRecorder;
 import me.akrasenkov.transfer.storage.AccountStateStorage;
 import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+import me.akrasenkov.transfer.storage.impl.cache.CachingAccountStateStorage;
+import me.akrasenkov.transfer.storage.impl.feed.ChangeFeedAccountStateStorage;
+import me.akrasenkov.transfer.storage.impl.lsm.LsmAccountStateStorage;
+import me.akrasenkov.transfer.warmup.Readiness;
+import me.akrasenkov.transfer.warmup.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main injection module for app.
+ * <p>
+ * Configuration properties are bound by name, so they can be injected with {@code @Named}.
+ * Properties not provided take default values.
  */
 public class AppModule extends AbstractModule {
+
+    /**
+     * ID generator for new accounts: {@code time} for time-ordered IDs or {@code uuid} for random UUIDs.
+     */
+    public static final String ID_GENERATOR = "transfer.id.generator";
+
+    /**
+     * Node ID in range [0, 65535] tagging time-ordered IDs. Must be unique for nodes sharing accounts.
+     */
+    public static final String NODE_ID = "transfer.node.id";
+
+    /**
+     * Number of threads and queue capacity of the executor running asynchronous provider calls.
+     */
+    public static final String PROVIDER_THREADS = "transfer.provider.threads";
+    public static final String PROVIDER_QUEUE = "transfer.provider.queue";
+
+    /**
+     * Name of executor running asynchronous provider calls.
+     */
+    public static final String PROVIDER_EXECUTOR = "providerExecutor";
+
+    /**
+     * Account storage: {@code memory} for in-memory storage or {@code lsm} for LSM-tree storage on disk.
+     */
+    public static final String STORAGE = "transfer.storage";
+
+    /**
+     * Number of accounts expected in storage, to size in-memory storage at startup, {@code 0} to grow on demand.
+     */
+    public static final String EXPECTED_ACCOUNTS = "transfer.storage.expected.accounts";
+
+    /**
+     * Directory of LSM-tree storage files.
+     */
+    public static final String LSM_DIRECTORY = "transfer.storage.lsm.directory";
+
+    /**
+     * Number of accounts in LSM-tree memtable which triggers its flush to disk.
+     */
+    public static final String LSM_MEMTABLE_SIZE = "transfer.storage.lsm.memtable.size";
+
+    /**
+     * Whether LSM-tree storage forces every transaction log append to disk.
+     */
+    public static final String LSM_SYNC = "transfer.storage.lsm.sync";
+
+    /**
+     * Maximum number of accounts cached on heap in front of the storage, {@code 0} disables caching.
+     */
+    public static final String CACHE_SIZE = "transfer.storage.cache.size";
+
+    /**
+     * Name of storage behind the cache.
+     */
+    public static final String BACKING_STORAGE = "backingStorage";
+
+    /**
+     * Name of storage with optional cache, behind the change feed.
+     */
+    public static final String CACHED_STORAGE = "cachedStorage";
+
+    /**
+     * Number of most recent account changes kept for change feed consumers.
+     */
+    public static final String FEED_CAPACITY = "transfer.feed.capacity";
+
+    /**
+     * Maximum number of change streams served at once, each holding a server thread.
+     */
+    public static final String FEED_STREAMS = "transfer.feed.streams";
+
+    /**
+     * Whether JDK Flight Recorder recording of slow request phases is running.
+     */
+    public static final String RECORDING_ENABLED = "transfer.recording.enabled";
+
+    /**
+     * Minimum duration in milliseconds of request phases recorded.
+     */
+    public static final String RECORDING_THRESHOLD = "transfer.recording.threshold";
+
+    /**
+     * Number of threads and queue capacity of the lane serving account reads.
+     */
+    public static final String READ_LANE_THREADS = "transfer.lane.read.threads";
+    public static final String READ_LANE_QUEUE = "transfer.lane.read.queue";
+
+    /**
+     * Number of threads and queue capacity of the lane serving account writes and transfers.
+     */
+    public static final String WRITE_LANE_THREADS = "transfer.lane.write.threads";
+    public static final String WRITE_LANE_QUEUE = "transfer.lane.write.queue";
+
+    /**
+     * Names of lanes serving reads and writes.
+     */
+    public static final String READ_LANE = "readLane";
+    public static final String WRITE_LANE = "writeLane";
+
+    /**
+     * Time limit of startup warmup in milliseconds, {@code 0} disables warmup.
+     */
+    public static final String WARMUP_MILLIS = "transfer.warmup.millis";
+
+    private final Properties properties;
+
+    public AppModule() {
+        this(new Properties());
+    }
+
+    public AppModule(Properties properties) {
+        this.properties = new Properties(defaults());
+        this.properties.putAll(properties);
+    }
+
     @Override
     protected void configure() {
-        // We use an in-memory storage implementation, so let's bind it as Singleton.
-        bind(AccountStateStorage.class).to(InMemoryAccountStateStorage.class).in(Singleton.class);
+        Names.bindProperties(binder(), properties);
+
+        // ID generators keep per-thread state, so they are bound as Singleton.
+        switch (properties.getProperty(ID_GENERATOR)) {
+            case "time":
+                bind(IdGenerator.class).to(TimeOrderedIdGenerator.class).in(Singleton.class);
+                break;
+            case "uuid":
+                bind(IdGenerator.class).to(RandomUuidIdGenerator.class).in(Singleton.class);
+                break;
+            default:
+                throw new IllegalArgumentException(ID_GENERATOR);
+        }
+
+        // Storage holds all accounts of the app, so let's bind it as Singleton.
+        Key<AccountStateStorage> backingStorage = Key.get(AccountStateStorage.class, Names.named(BACKING_STORAGE));
+        switch (properties.getProperty(STORAGE)) {
+            case "memory":
+                bind(backingStorage).to(InMemoryAccountStateStorage.class).in(Singleton.class);
+                break;
+            case "lsm":
+                bind(backingStorage).to(LsmAccountStateStorage.class).in(Singleton.class);
+                break;
+            default:
+                throw new IllegalArgumentException(STORAGE);
+        }
+        Key<AccountStateStorage> cachedStorage = Key.get(AccountStateStorage.class, Names.named(CACHED_STORAGE));
+        if (Integer.parseInt(properties.getProperty(CACHE_SIZE)) > 0) {
+            bind(cachedStorage).to(CachingAccountStateStorage.class).in(Singleton.class);
+        } else {
+            bind(cachedStorage).to(backingStorage);
+        }
+        bind(AccountStateStorage.class).to(ChangeFeedAccountStateStorage.class).in(Singleton.class);
+
+        // Change feed is shared by storage publishing to it and APIs reading from it.
+        bind(ChangeFeed.class).in(Singleton.class);
+
+        // Flight recording is one per app, shared by the app starting it and APIs dumping it.
+        bind(FlightRecorder.class).in(Singleton.class);
+
+        // Issued funds are counted for all accounts, and statistics keep their baseline, so both are Singleton.
+        bind(IssuedFunds.class).in(Singleton.class);
+
+        // Readiness is shared by the warmup marking it and APIs reporting it.
+        bind(Readiness.class).in(Singleton.class);
 
         // Service providers binding.
         bind(TransferServiceProvider.class).to(TransferServiceProviderImpl.class);
         bind(AccountStateProvider.class).to(AccountStateProviderImpl.class);
+        bind(AccountStatsProvider.class).to(AccountStatsProviderImpl.class).in(Singleton.class);
 
         // Application RESTful API binding.
         bind(TransferServiceRestApi.class);
+
+        // Application binary API binding.
+        bind(TransferServiceBinaryApi.class);
+    }
+
+    @Provides
+    @Singleton
+    @Named(PROVIDER_EXECUTOR)
+    Executor providerExecutor(@Named(PROVIDER_THREADS) int threads, @Named(PROVIDER_QUEUE) int queueCapacity) {
+        // Calls beyond the queue are rejected with executor name, as lanes do, so they are answered as overloaded
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("provider-%d")
+                        .setDaemon(true)
+                        .build(),
+                (call, executor) -> {
+                    throw new RejectedExecutionException("provider");
+                });
+    }
+
+    @Provides
+    @Singleton
+    @Named(READ_LANE)
+    Lane readLane(@Named(READ_LANE_THREADS) int threads, @Named(READ_LANE_QUEUE) int queueCapacity) {
+        return new Lane("read", threads, queueCapacity);
+    }
+
+    @Provides
+    @Singleton
+    @Named(WRITE_LANE)
+    Lane writeLane(@Named(WRITE_LANE_THREADS) int threads, @Named(WRITE_LANE_QUEUE) int queueCapacity) {
+        return new Lane("write", threads, queueCapacity);
+    }
+
+    @Provides
+    @Singleton
+    Gson gson() {
+        return new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+                .create();
+    }
+
+    @Provides
+    Warmup warmup(Gson gson, Readiness readiness, @Named(WARMUP_MILLIS) long maxMillis) {
+        return new Warmup(throwawayProperties(), gson, readiness, maxMillis);
+    }
+
+    /**
+     * @return configuration of a throwaway app for warmup: the same one, so the same storage is warmed up,
+     * but without sizing storage, recording or warmup of its own
+     */
+    private Properties throwawayProperties() {
+        Properties throwaway = new Properties();
+        for (String name : properties.stringPropertyNames()) {
+            throwaway.setProperty(name, properties.getProperty(name));
+        }
+        throwaway.setProperty(EXPECTED_ACCOUNTS, "0");
+        throwaway.setProperty(RECORDING_ENABLED, "false");
+        throwaway.setProperty(WARMUP_MILLIS, "0");
+        return throwaway;
+    }
+
+    private static Properties defaults() {
+        Properties defaults = new Properties();
+        defaults.setProperty(ID_GENERATOR, "time");
+        defaults.setProperty(NODE_ID, "0");
+        defaults.setProperty(STORAGE, "memory");
+        defaults.setProperty(EXPECTED_ACCOUNTS, "0");
+        defaults.setProperty(LSM_DIRECTORY, "data");
+        defaults.setProperty(LSM_MEMTABLE_SIZE, "100000");
+        defaults.setProperty(LSM_SYNC, "false");
+        defaults.setProperty(CACHE_SIZE, "0");
+        defaults.setProperty(FEED_CAPACITY, "65536");
+        defaults.setProperty(FEED_STREAMS, "16");
+        defaults.setProperty(RECORDING_ENABLED, "false");
+        defaults.setProperty(RECORDING_THRESHOLD, "20");
+        defaults.setProperty(WARMUP_MILLIS, "10000");
+        defaults.setProperty(READ_LANE_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()));
+        defaults.setProperty(READ_LANE_QUEUE, "256");
+        defaults.setProperty(WRITE_LANE_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()));
+        defaults.setProperty(WRITE_LANE_QUEUE, "128");
+        defaults.setProperty(PROVIDER_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()));
+        defaults.setProperty(PROVIDER_QUEUE, "1024");
+        return defaults;
     }
 }
@@ -1,32 +1,55 @@
 package me.akrasenkov.transfer;
 
-import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import me.akrasenkov.transfer.exception.AccountBlockedException;
 import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
 import me.akrasenkov.transfer.exception.impl.NotEnoughFundsException;
 import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.feed.ChangeFeed;
+import me.akrasenkov.transfer.lane.Lane;
+import me.akrasenkov.transfer.lane.LaneStats;
 import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.AccountStats;
+import me.akrasenkov.transfer.model.domain.AccountsQuery;
+import me.akrasenkov.transfer.model.domain.AccountsQueryResult;
+import me.akrasenkov.transfer.model.domain.ChangeEvent;
 import me.akrasenkov.transfer.model.domain.ExceptionMessage;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.MultiTransferResult;
+import me.akrasenkov.transfer.model.domain.ReadinessReport;
 import me.akrasenkov.transfer.model.domain.Transfer;
-import me.akrasenkov.transfer.model.domain.TransferReceipt;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.model.domain.TransferResult;
 import me.akrasenkov.transfer.provider.AccountStateProvider;
+import me.akrasenkov.transfer.provider.AccountStatsProvider;
 import me.akrasenkov.transfer.provider.TransferServiceProvider;
+import me.akrasenkov.transfer.recording.BodyRecording;
+import me.akrasenkov.transfer.recording.FlightRecorder;
+import me.akrasenkov.transfer.recording.RequestRecording;
+import me.akrasenkov.transfer.warmup.Readiness;
 import spark.Request;
 import spark.Response;
+import spark.Route;
+import spark.Service;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static java.lang.String.format;
-import static spark.Spark.before;
-import static spark.Spark.exception;
-import static spark.Spark.get;
-import static spark.Spark.path;
-import static spark.Spark.port;
-import static spark.Spark.post;
 
 /**
  * Application RESTful API.
@@ -37,22 +60,86 @@ public class TransferServiceRestApi {
     private static final int HTTP_BAD_REQUEST = 400;
     private static final int HTTP_FORBIDDEN = 403;
     private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    /**
+     * Server threads beyond those lanes and change streams can hold: for short routes outside of lanes,
+     * connection acceptors and selectors.
+     */
+    private static final int UNLANED_THREADS = 32;
+
+    /**
+     * Maximum number of accounts in one query.
+     */
+    private static final int MAX_QUERY_ACCOUNTS = 10_000;
+
+    /**
+     * Maximum number of legs in one multi-leg transfer.
+     */
+    private static final int MAX_TRANSFER_LEGS = 10_000;
+
+    /**
+     * Default and maximum number of accounts with the greatest balances in statistics.
+     */
+    private static final int DEFAULT_STATS_TOP = 10;
+    private static final int MAX_STATS_TOP = 1000;
+
+    /**
+     * Maximum number of change events written at once, and interval of heartbeats of idle change stream.
+     */
+    private static final int CHANGES_BATCH_SIZE = 1024;
+    private static final long CHANGES_HEARTBEAT_MILLIS = 1000;
 
     private static final String HEADER_LOCATION = "Location";
+    private static final String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
     private static final String APPLICATION_JSON_TYPE = "application/json";
+    private static final String APPLICATION_NDJSON_TYPE = "application/x-ndjson";
+    private static final String APPLICATION_OCTET_STREAM_TYPE = "application/octet-stream";
 
     private final TransferServiceProvider transferServiceProvider;
     private final AccountStateProvider accountStateProvider;
+    private final AccountStatsProvider accountStatsProvider;
+    private final ChangeFeed changeFeed;
+    private final FlightRecorder flightRecorder;
+
+    private final Readiness readiness;
+    private final Lane readLane;
+    private final Lane writeLane;
+    private final Gson gson;
+
+    /**
+     * Change streams hold their server threads for as long as consumers stay, so only this many are served at once.
+     */
+    private final int maxStreams;
+    private final Semaphore streams;
 
-    private final Gson gson = new GsonBuilder()
-            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-            .create();
+    /**
+     * Server of this API. Each app has its own, so apps of different ports can run in one JVM.
+     */
+    private Service http;
 
     @Inject
     public TransferServiceRestApi(TransferServiceProvider transferServiceProvider,
-                                  AccountStateProvider accountStateProvider) {
+                                  AccountStateProvider accountStateProvider,
+                                  AccountStatsProvider accountStatsProvider,
+                                  ChangeFeed changeFeed,
+                                  FlightRecorder flightRecorder,
+                                  Readiness readiness,
+                                  @Named(AppModule.READ_LANE) Lane readLane,
+                                  @Named(AppModule.WRITE_LANE) Lane writeLane,
+                                  @Named(AppModule.FEED_STREAMS) int maxStreams,
+                                  Gson gson) {
         this.transferServiceProvider = transferServiceProvider;
         this.accountStateProvider = accountStateProvider;
+        this.accountStatsProvider = accountStatsProvider;
+        this.changeFeed = changeFeed;
+        this.flightRecorder = flightRecorder;
+        this.readiness = readiness;
+        this.readLane = readLane;
+        this.writeLane = writeLane;
+        this.maxStreams = maxStreams;
+        this.streams = new Semaphore(maxStreams);
+        this.gson = gson;
     }
 
 
@@ -62,21 +149,52 @@ public class TransferServiceRestApi {
      * @param port application port to serve API
      */
     public void init(int port) {
-        port(port);
+        http = Service.ignite();
+        http.port(port);
+        // Server threads are enough for every lane and all change streams to be full at once, so neither
+        // a saturated lane nor streams ever hold the threads requests of other lanes are accepted by
+        http.threadPool(readLane.getCapacity() + writeLane.getCapacity() + maxStreams + UNLANED_THREADS);
 
-        before((req, res) -> {
+        http.before((req, res) -> {
             res.type(APPLICATION_JSON_TYPE);
         });
-        post("/transfer/:senderId/to/:receiverId", this::performTransfer, gson::toJson);
-        path("/account", () -> {
-            post("/", this::createAccount, gson::toJson);
-            get("/:accountId", this::getAccount, gson::toJson);
+        // Writes queue up behind the transaction lock, so they are served by their own lane, separately from reads
+        http.post("/transfer/:senderId/to/:receiverId",
+                mapped(recorded(laned(writeLane, this::performTransfer))), this::toJson);
+        http.post("/transfers", mapped(recorded(laned(writeLane, this::performMultiTransfer))), this::toJson);
+        http.path("/account", () -> {
+            http.post("/", mapped(recorded(laned(writeLane, this::createAccount))), this::toJson);
+            http.get("/:accountId", mapped(recorded(laned(readLane, this::getAccount))), this::toJson);
         });
+        http.post("/accounts/query", mapped(recorded(laned(readLane, this::queryAccounts))));
+        http.get("/stats", mapped(recorded(laned(readLane, this::getStats))), this::toJson);
+        // Change stream is long-lived by design, so it is not recorded, and it is capped instead of laned
+        http.get("/changes", mapped(this::streamChanges));
+        if (flightRecorder.isRunning()) {
+            http.get("/recording", this::dumpRecording);
+        }
+        // Readiness probe is polled by load balancers, so it is not recorded
+        http.get("/ready", this::getReadiness, this::toJson);
+        http.get("/lanes", this::getLanes, this::toJson);
+
+        // Routes are served once the server is started, which Spark does in background
+        http.awaitInitialization();
+    }
+
+    /**
+     * @return port this API is served on, once initialized
+     */
+    public int getPort() {
+        return http.port();
+    }
 
-        exception(AccountNotFoundException.class, this::mapAccountNotFoundException);
-        exception(AccountBlockedException.class, this::mapAccountBlockedException);
-        exception(NotEnoughFundsException.class, this::mapNotEnoughFundsException);
-        exception(IllegalArgumentException.class, this::mapIllegalArgumentException);
+    /**
+     * Stop serving RESTful API.
+     */
+    public void stop() {
+        if (http != null) {
+            http.stop();
+        }
     }
 
     /**
@@ -93,6 +211,140 @@ public class TransferServiceRestApi {
         return accountStateProvider.getAccountState(accountId);
     }
 
+    /**
+     * Handle `POST /accounts/query` request.
+     * Retrieve account states for many IDs at once, as of one consistent state of accounts.
+     *
+     * Response is written to the output as it is serialized, without building the whole JSON in memory.
+     * Accounts not found are listed in `not_found` instead of failing the request.
+     *
+     * @param rq request
+     * @param rp response
+     * @return empty string, as response is already written
+     * @throws IOException if response cannot be written
+     */
+    private Object queryAccounts(Request rq, Response rp) throws IOException {
+        AccountsQuery query = fromJson(rq, AccountsQuery.class);
+        if (query == null || query.getAccountIds() == null || query.getAccountIds().isEmpty()
+                || query.getAccountIds().size() > MAX_QUERY_ACCOUNTS) {
+            throw new IllegalArgumentException("account_ids");
+        }
+        AccountsQueryResult result = accountStateProvider.getAccountStates(query);
+
+        BodyRecording recording = BodyRecording.beginSerialization();
+        JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(rp.raw().getOutputStream(), StandardCharsets.UTF_8)));
+        writer.beginObject().name("accounts").beginArray();
+        for (AccountState state : result.getAccounts()) {
+            gson.toJson(state, AccountState.class, writer);
+        }
+        writer.endArray().name("not_found").beginArray();
+        for (String accountId : result.getNotFound()) {
+            writer.value(accountId);
+        }
+        writer.endArray().endObject();
+        writer.flush();
+        if (recording.end()) {
+            recording.commit(AccountsQueryResult.class.getSimpleName(),
+                    result.getAccounts().size() + result.getNotFound().size());
+        }
+        return "";
+    }
+
+    /**
+     * Handle `GET /stats?top=` request.
+     * Compute statistics over all accounts as of one consistent state, without blocking transfers.
+     *
+     * Total balance is checked against funds put into accounts since the first statistics computed,
+     * as transfers only move funds between accounts.
+     *
+     * @param rq request
+     * @param rp response
+     * @return statistics over all accounts
+     */
+    private AccountStats getStats(Request rq, Response rp) {
+        int top = DEFAULT_STATS_TOP;
+        String topStr = rq.queryParams("top");
+        if (!isNullOrEmpty(topStr)) {
+            try {
+                top = Integer.parseInt(topStr);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("top");
+            }
+            if (top < 0 || top > MAX_STATS_TOP) {
+                throw new IllegalArgumentException("top");
+            }
+        }
+        return accountStatsProvider.getAccountStats(top);
+    }
+
+    /**
+     * Handle `GET /changes?cursor=` request.
+     * Stream committed account changes after the cursor as newline-delimited JSON, until the consumer disconnects.
+     *
+     * Without cursor, only changes made after the request are streamed. Cursor `0` starts from the oldest change kept.
+     * A consumer falling too far behind gets a `GAP` event and continues after the changes lost.
+     * Changes are kept only while some consumer is streaming, so a consumer resuming after a time without consumers
+     * gets a `GAP` event too.
+     * Idle stream gets `HEARTBEAT` events, which also detect disconnected consumers.
+     *
+     * Each stream holds a server thread until its consumer disconnects, so streams beyond the maximum
+     * are answered `503 Service Unavailable` at once, as requests to a full lane are.
+     *
+     * @param rq request
+     * @param rp response
+     * @return empty string, as response is already written
+     */
+    private Object streamChanges(Request rq, Response rp) {
+        Long requestedCursor = null;
+        String cursorStr = rq.queryParams("cursor");
+        if (!isNullOrEmpty(cursorStr)) {
+            try {
+                requestedCursor = Long.parseLong(cursorStr);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("cursor");
+            }
+            if (requestedCursor < 0) {
+                throw new IllegalArgumentException("cursor");
+            }
+        }
+
+        if (!streams.tryAcquire()) {
+            throw new RejectedExecutionException("changes");
+        }
+        // Subscribed before the cursor is taken. Writers which checked for subscribers just before
+        // may still skip their changes, and those come as a gap.
+        changeFeed.subscribe();
+        try {
+            long cursor = requestedCursor != null ? requestedCursor : changeFeed.getLastSequence();
+            rp.type(APPLICATION_NDJSON_TYPE);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(rp.raw().getOutputStream(), StandardCharsets.UTF_8));
+            while (true) {
+                List<ChangeEvent> events = changeFeed.poll(
+                        cursor, CHANGES_BATCH_SIZE, CHANGES_HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (events.isEmpty()) {
+                    events = Collections.singletonList(ChangeEvent.heartbeat(cursor));
+                }
+                for (ChangeEvent event : events) {
+                    gson.toJson(event, writer);
+                    writer.write('\n');
+                    cursor = event.getSequence();
+                }
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // Consumer disconnected
+        } catch (InterruptedException e) {
+            // Server is stopping
+            Thread.currentThread().interrupt();
+        } finally {
+            changeFeed.unsubscribe();
+            streams.release();
+        }
+        return "";
+    }
+
     /**
      * Handle `POST /account/` request.
      * Create new account with provided parameters.
@@ -103,7 +355,7 @@ public class TransferServiceRestApi {
      * @throws TransferServiceException if an exception occurred during the account creation
      */
     private AccountState createAccount(Request rq, Response rp) throws TransferServiceException {
-        AccountState newState = gson.fromJson(rq.body(), AccountState.class);
+        AccountState newState = fromJson(rq, AccountState.class);
         AccountState createdState = accountStateProvider.saveAccountState(newState);
         rp.status(HTTP_CREATED);
         rp.header(HEADER_LOCATION, format("/account/%s", createdState.getAccountId()));
@@ -114,12 +366,14 @@ public class TransferServiceRestApi {
      * Handle `POST /transfer/:senderId/to/:receiverId/` request.
      * Perform a funds transfer between two accounts with provided IDs and transfer amount.
      *
+     * Rejected transfers are answered directly from the transfer result, without exception mapping.
+     *
      * @param rq request
      * @param rp response
-     * @return receipt for performed funds transfer
+     * @return receipt for performed funds transfer, or exception message if transfer was rejected
      * @throws TransferServiceException if an exception occurred during the transfer
      */
-    private TransferReceipt performTransfer(Request rq, Response rp) throws TransferServiceException {
+    private Object performTransfer(Request rq, Response rp) throws TransferServiceException {
         BigDecimal amount;
         String senderId = rq.params("senderId");
         String receiverId = rq.params("receiverId");
@@ -133,46 +387,249 @@ public class TransferServiceRestApi {
             throw new IllegalArgumentException("amount");
         }
 
-        return transferServiceProvider.performTransfer(Transfer.builder()
+        TransferResult result = transferServiceProvider.tryPerformTransfer(Transfer.builder()
                 .amount(amount)
                 .receiverId(receiverId)
                 .senderId(senderId)
                 .build());
+        if (result.isRejected()) {
+            return mapTransferRejection(result.getRejection(), rp);
+        }
+        return result.getReceipt();
     }
 
-    private void mapIllegalArgumentException(IllegalArgumentException ex, Request rq, Response rp) {
+    /**
+     * Handle `POST /transfers` request.
+     * Perform a funds transfer of many legs atomically: either all legs are performed, or none of them.
+     *
+     * Every account is debited or credited once with its net change, so one-to-many and many-to-one transfers
+     * check the balance of the common account against the total amount.
+     *
+     * @param rq request
+     * @param rp response
+     * @return combined receipt for performed legs, or exception message if transfer was rejected
+     * @throws TransferServiceException if an exception occurred during the transfer
+     */
+    private Object performMultiTransfer(Request rq, Response rp) throws TransferServiceException {
+        MultiTransfer transfer = fromJson(rq, MultiTransfer.class);
+        if (transfer == null || transfer.getLegs() == null || transfer.getLegs().isEmpty()
+                || transfer.getLegs().size() > MAX_TRANSFER_LEGS) {
+            throw new IllegalArgumentException("legs");
+        }
+        for (Transfer leg : transfer.getLegs()) {
+            if (leg == null || isNullOrEmpty(leg.getSenderId()) || isNullOrEmpty(leg.getReceiverId())
+                    || leg.getAmount() == null || leg.getAmount().signum() <= 0) {
+                throw new IllegalArgumentException("legs");
+            }
+        }
+
+        MultiTransferResult result = transferServiceProvider.tryPerformMultiTransfer(transfer);
+        if (result.isRejected()) {
+            return mapTransferRejection(result.getRejection(), rp);
+        }
+        return result.getReceipt();
+    }
+
+    /**
+     * Handle `GET /recording` request, served only while flight recording is running.
+     * Dump slow request phases recorded so far, as a JFR file.
+     *
+     * @param rq request
+     * @param rp response
+     * @return empty string, as response is already written
+     * @throws IOException if recording cannot be written
+     */
+    private Object dumpRecording(Request rq, Response rp) throws IOException {
+        rp.type(APPLICATION_OCTET_STREAM_TYPE);
+        rp.header(HEADER_CONTENT_DISPOSITION, "attachment; filename=transfer-service.jfr");
+        flightRecorder.dump(rp.raw().getOutputStream());
+        return "";
+    }
+
+    /**
+     * Handle `GET /ready` request.
+     * Report whether the app is warmed up and ready to serve traffic, with startup measurements.
+     *
+     * @param rq request
+     * @param rp response
+     * @return readiness of the app, with `503 Service Unavailable` code while not ready
+     */
+    private ReadinessReport getReadiness(Request rq, Response rp) {
+        ReadinessReport report = readiness.getReport();
+        if (!report.isReady()) {
+            rp.status(HTTP_SERVICE_UNAVAILABLE);
+        }
+        return report;
+    }
+
+    /**
+     * Handle `GET /lanes` request.
+     * Retrieve counters and latencies of lanes serving reads and writes.
+     *
+     * @param rq request
+     * @param rp response
+     * @return statistics of read and write lanes
+     */
+    private List<LaneStats> getLanes(Request rq, Response rp) {
+        return Arrays.asList(readLane.getStats(), writeLane.getStats());
+    }
+
+    /**
+     * Wrap route to answer exceptions it throws with error responses. They are not mapped with Spark exception
+     * mappers, since those are shared by all Spark servers of the JVM and cleared when any of them stops,
+     * as the throwaway app of warmup does.
+     *
+     * @param route route to map exceptions of
+     * @return route answering its exceptions
+     */
+    private Route mapped(Route route) {
+        return (rq, rp) -> {
+            ExceptionMessage message;
+            try {
+                return route.handle(rq, rp);
+            } catch (AccountNotFoundException e) {
+                message = mapAccountNotFoundException(e, rp);
+            } catch (AccountBlockedException e) {
+                message = mapAccountBlockedException(e, rp);
+            } catch (NotEnoughFundsException e) {
+                message = mapNotEnoughFundsException(e, rp);
+            } catch (IllegalArgumentException e) {
+                message = mapIllegalArgumentException(e, rp);
+            } catch (RejectedExecutionException e) {
+                message = mapRejectedExecutionException(e, rp);
+            }
+            throw http.halt(rp.status(), gson.toJson(message));
+        };
+    }
+
+    /**
+     * Wrap route to be handled in a lane, while the server thread waits for it.
+     *
+     * @param lane  lane to handle route in
+     * @param route route to handle
+     * @return route handled in the lane
+     */
+    private static Route laned(Lane lane, Route route) {
+        return (rq, rp) -> lane.call(() -> route.handle(rq, rp));
+    }
+
+    /**
+     * Wrap route to record its handling, if it is slow,
+     * and its latency during the first minute after readiness.
+     *
+     * @param route route to record
+     * @return recorded route
+     */
+    private Route recorded(Route route) {
+        return (rq, rp) -> {
+            long start = System.nanoTime();
+            RequestRecording recording = RequestRecording.begin();
+            Exception exception = null;
+            try {
+                return route.handle(rq, rp);
+            } catch (Exception e) {
+                exception = e;
+                throw e;
+            } finally {
+                boolean slow = recording.end();
+                readiness.recordRequest(start, System.nanoTime() - start);
+                if (slow) {
+                    recording.commit(rq.requestMethod(), rq.pathInfo(), rp.status(),
+                            exception == null ? null : exception.getClass().getSimpleName(), queueTime(rq));
+                }
+            }
+        };
+    }
+
+    /**
+     * @return milliseconds passed since the server received the request
+     */
+    private static long queueTime(Request rq) {
+        org.eclipse.jetty.server.Request request = org.eclipse.jetty.server.Request.getBaseRequest(rq.raw());
+        return request == null ? 0 : System.currentTimeMillis() - request.getTimeStamp();
+    }
+
+    /**
+     * Parse request body, recording it if it is slow.
+     */
+    private <T> T fromJson(Request rq, Class<T> type) {
+        BodyRecording recording = BodyRecording.beginParse();
+        String body = rq.body();
+        T value = gson.fromJson(body, type);
+        if (recording.end()) {
+            recording.commit(type.getSimpleName(), body == null ? 0 : body.length());
+        }
+        return value;
+    }
+
+    /**
+     * Serialize route result, recording it if it is slow.
+     */
+    private String toJson(Object model) {
+        BodyRecording recording = BodyRecording.beginSerialization();
+        String json = gson.toJson(model);
+        if (recording.end()) {
+            recording.commit(model == null ? null : model.getClass().getSimpleName(), 1);
+        }
+        return json;
+    }
+
+    private ExceptionMessage mapTransferRejection(TransferRejection rejection, Response rp) {
+        switch (rejection.getReason()) {
+            case ACCOUNT_NOT_FOUND:
+                rp.status(HTTP_NOT_FOUND);
+                break;
+            case ACCOUNT_IS_BLOCKED:
+                rp.status(HTTP_FORBIDDEN);
+                break;
+            default:
+                rp.status(HTTP_BAD_REQUEST);
+        }
+        return rejection.toExceptionMessage();
+    }
+
+    private ExceptionMessage mapIllegalArgumentException(IllegalArgumentException ex, Response rp) {
         ExceptionMessage message = ExceptionMessage.builder()
                 .reason(ExceptionMessage.Reason.INVALID_PARAM)
                 .value(ex.getMessage())
                 .build();
-        rp.body(gson.toJson(message));
         rp.status(HTTP_BAD_REQUEST);
+        return message;
+    }
+
+    private ExceptionMessage mapRejectedExecutionException(RejectedExecutionException ex, Response rp) {
+        ExceptionMessage message = ExceptionMessage.builder()
+                .reason(ExceptionMessage.Reason.OVERLOADED)
+                .value(ex.getMessage())
+                .build();
+        rp.status(HTTP_SERVICE_UNAVAILABLE);
+        return message;
     }
 
-    private void mapAccountNotFoundException(AccountNotFoundException ex, Request rq, Response rp) {
+    private ExceptionMessage mapAccountNotFoundException(AccountNotFoundException ex, Response rp) {
         ExceptionMessage message = ExceptionMessage.builder()
                 .reason(ExceptionMessage.Reason.ACCOUNT_NOT_FOUND)
                 .value(ex.getAccountId())
                 .build();
-        rp.body(gson.toJson(message));
         rp.status(HTTP_NOT_FOUND);
+        return message;
     }
 
-    private void mapAccountBlockedException(AccountBlockedException ex, Request rq, Response rp) {
+    private ExceptionMessage mapAccountBlockedException(AccountBlockedException ex, Response rp) {
         ExceptionMessage message = ExceptionMessage.builder()
                 .reason(ExceptionMessage.Reason.ACCOUNT_IS_BLOCKED)
                 .value(ex.getAccountId())
                 .build();
-        rp.body(gson.toJson(message));
         rp.status(HTTP_FORBIDDEN);
+        return message;
     }
 
-    private void mapNotEnoughFundsException(NotEnoughFundsException ex, Request rq, Response rp) {
+    private ExceptionMessage mapNotEnoughFundsException(NotEnoughFundsException ex, Response rp) {
         ExceptionMessage message = ExceptionMessage.builder()
                 .reason(ExceptionMessage.Reason.NOT_ENOUGH_FUNDS)
                 .value(ex.getAmountAvailable().toString())
                 .build();
-        rp.body(gson.toJson(message));
         rp.status(HTTP_BAD_REQUEST);
+        return message;
     }
 }
@@ -0,0 +1,158 @@
+package me.akrasenkov.transfer.binary;
+
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.ExceptionMessage;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Length-prefixed binary protocol of Funds Transfer Service.
+ * <p>
+ * All numbers are big-endian. Every frame starts with a 4-byte length of the rest of the frame,
+ * followed by an 8-byte request ID chosen by the client. Responses carry the ID of the request
+ * they answer, so a client may pipeline requests and match responses arriving in any order.
+ * <pre>
+ * request:  [int length][long requestId][byte opcode][payload]
+ * response: [int length][long requestId][byte status][payload]
+ * </pre>
+ * Request payloads:
+ * <ul>
+ * <li>{@link #OP_TRANSFER}: string senderId, string receiverId, decimal amount</li>
+ * <li>{@link #OP_GET_ACCOUNT}: string accountId</li>
+ * <li>{@link #OP_CREATE_ACCOUNT}: string accountId (nullable), boolean blocked, decimal balance (nullable)</li>
+ * </ul>
+ * Response payloads:
+ * <ul>
+ * <li>{@link #STATUS_OK} for transfer: empty, the receipt is equal to the request</li>
+ * <li>{@link #STATUS_OK} for account requests: string accountId, boolean blocked, decimal balance</li>
+ * <li>any other status is {@link ExceptionMessage.Reason} ordinal + 1,
+ * followed by short count of values and the values as strings</li>
+ * </ul>
+ * Strings are encoded as a short byte length (-1 for null) followed by UTF-8 bytes,
+ * decimals as a short unscaled value length (-1 for null), unscaled value bytes and an int scale.
+ */
+public final class BinaryProtocol {
+
+    public static final byte OP_TRANSFER = 1;
+    public static final byte OP_GET_ACCOUNT = 2;
+    public static final byte OP_CREATE_ACCOUNT = 3;
+
+    public static final byte STATUS_OK = 0;
+
+    /**
+     * Size of the frame length prefix.
+     */
+    public static final int LENGTH_PREFIX_SIZE = Integer.BYTES;
+
+    /**
+     * Size of the frame header following the length prefix: request ID and opcode (or status).
+     */
+    public static final int HEADER_SIZE = Long.BYTES + Byte.BYTES;
+
+    /**
+     * Maximum frame length, excluding the length prefix. Larger frames are a protocol violation.
+     */
+    public static final int MAX_FRAME_LENGTH = 4096;
+
+    private static final short NULL_LENGTH = -1;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Get a response status for provided exception reason.
+     *
+     * @param reason exception reason
+     * @return response status
+     */
+    public static byte statusOf(ExceptionMessage.Reason reason) {
+        return (byte) (reason.ordinal() + 1);
+    }
+
+    /**
+     * Get an exception reason for provided non-OK response status.
+     *
+     * @param status response status
+     * @return exception reason, or {@link ExceptionMessage.Reason#UNKNOWN} for unknown statuses
+     */
+    public static ExceptionMessage.Reason reasonOf(byte status) {
+        ExceptionMessage.Reason[] reasons = ExceptionMessage.Reason.values();
+        int ordinal = status - 1;
+        return ordinal >= 0 && ordinal < reasons.length ? reasons[ordinal] : ExceptionMessage.Reason.UNKNOWN;
+    }
+
+    public static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Read a string from buffer.
+     *
+     * @param buffer  source buffer
+     * @param scratch reusable array for string bytes, must fit the longest string of a frame
+     * @return decoded string or null
+     */
+    public static String getString(ByteBuffer buffer, byte[] scratch) {
+        short length = buffer.getShort();
+        if (length == NULL_LENGTH) return null;
+        checkLength(length, buffer);
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    public static void putDecimal(ByteBuffer buffer, BigDecimal value) {
+        if (value == null) {
+            buffer.putShort(NULL_LENGTH);
+            return;
+        }
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        buffer.putShort((short) unscaled.length);
+        buffer.put(unscaled);
+        buffer.putInt(value.scale());
+    }
+
+    /**
+     * Read a decimal from buffer.
+     *
+     * @param buffer source buffer
+     * @return decoded decimal or null
+     */
+    public static BigDecimal getDecimal(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length == NULL_LENGTH) return null;
+        checkLength(length, buffer);
+        byte[] unscaled = new byte[length];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), buffer.getInt());
+    }
+
+    public static void putAccountState(ByteBuffer buffer, AccountState state) {
+        putString(buffer, state.getAccountId());
+        buffer.put((byte) (state.isBlocked() ? 1 : 0));
+        putDecimal(buffer, state.getBalance());
+    }
+
+    public static AccountState getAccountState(ByteBuffer buffer, byte[] scratch) {
+        return AccountState.builder()
+                .accountId(getString(buffer, scratch))
+                .blocked(buffer.get() != 0)
+                .balance(getDecimal(buffer))
+                .build();
+    }
+
+    private static void checkLength(short length, ByteBuffer buffer) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("length");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package me.akrasenkov.transfer.binary;
+
+import me.akrasenkov.transfer.exception.AccountBlockedException;
+import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
+import me.akrasenkov.transfer.exception.impl.NotEnoughFundsException;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.ExceptionMessage;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferReceipt;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static me.akrasenkov.transfer.binary.BinaryProtocol.LENGTH_PREFIX_SIZE;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.MAX_FRAME_LENGTH;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.OP_CREATE_ACCOUNT;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.OP_GET_ACCOUNT;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.OP_TRANSFER;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.STATUS_OK;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.getString;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.putAccountState;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.putDecimal;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.putString;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.reasonOf;
+
+/**
+ * Java client for {@link TransferServiceBinaryApi}.
+ * <p>
+ * Uses a single persistent connection. Requests are written immediately without waiting for
+ * previous responses, so any number of requests can be pipelined from any number of threads.
+ * Service exceptions complete returned futures exceptionally with the same exception types,
+ * which are thrown by service providers.
+ */
+public class BinaryProtocolClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(LENGTH_PREFIX_SIZE + MAX_FRAME_LENGTH);
+    private final Map<Long, PendingCall<?>> pendingCalls = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    /**
+     * Connect to binary API.
+     *
+     * @param host service host
+     * @param port service binary API port
+     * @throws IOException if connection failed
+     */
+    public BinaryProtocolClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Thread reader = new Thread(this::readResponses, "binary-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Perform a funds transfer.
+     *
+     * @param transfer funds transfer parameters
+     * @return future of receipt for performed funds transfer
+     */
+    public CompletableFuture<TransferReceipt> performTransfer(Transfer transfer) {
+        PendingCall<TransferReceipt> call = new PendingCall<>(transfer.getAmount(),
+                (frame, scratch) -> TransferReceipt.from(transfer).build());
+        return send(call, OP_TRANSFER, buffer -> {
+            putString(buffer, transfer.getSenderId());
+            putString(buffer, transfer.getReceiverId());
+            putDecimal(buffer, transfer.getAmount());
+        });
+    }
+
+    /**
+     * Get account state for specified ID.
+     *
+     * @param accountId account ID
+     * @return future of account state for specified ID
+     */
+    public CompletableFuture<AccountState> getAccount(String accountId) {
+        PendingCall<AccountState> call = new PendingCall<>(null, BinaryProtocol::getAccountState);
+        return send(call, OP_GET_ACCOUNT, buffer -> putString(buffer, accountId));
+    }
+
+    /**
+     * Create an account with provided parameters.
+     *
+     * @param state account state
+     * @return future of created account state
+     */
+    public CompletableFuture<AccountState> createAccount(AccountState state) {
+        PendingCall<AccountState> call = new PendingCall<>(null, BinaryProtocol::getAccountState);
+        return send(call, OP_CREATE_ACCOUNT, buffer -> putAccountState(buffer, state));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private <T> CompletableFuture<T> send(PendingCall<T> call, byte opcode, Consumer<ByteBuffer> payload) {
+        long requestId = requestIds.incrementAndGet();
+        // Register call before writing, response can arrive before write returns
+        pendingCalls.put(requestId, call);
+        try {
+            synchronized (writeBuffer) {
+                writeBuffer.clear();
+                writeBuffer.putInt(0);
+                writeBuffer.putLong(requestId);
+                writeBuffer.put(opcode);
+                payload.accept(writeBuffer);
+                writeBuffer.putInt(0, writeBuffer.position() - LENGTH_PREFIX_SIZE);
+                writeBuffer.flip();
+                while (writeBuffer.hasRemaining()) {
+                    channel.write(writeBuffer);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            pendingCalls.remove(requestId);
+            call.future.completeExceptionally(e);
+        }
+        return call.future;
+    }
+
+    /**
+     * Reader thread main loop. Completes pending calls with received responses.
+     */
+    private void readResponses() {
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        byte[] scratch = new byte[MAX_FRAME_LENGTH];
+        try {
+            while (true) {
+                if (channel.read(readBuffer) < 0) throw new EOFException();
+                readBuffer.flip();
+                while (readBuffer.remaining() >= LENGTH_PREFIX_SIZE) {
+                    int length = readBuffer.getInt(readBuffer.position());
+                    if (readBuffer.remaining() < LENGTH_PREFIX_SIZE + length) break;
+                    int limit = readBuffer.limit();
+                    int frameEnd = readBuffer.position() + LENGTH_PREFIX_SIZE + length;
+                    readBuffer.position(readBuffer.position() + LENGTH_PREFIX_SIZE);
+                    readBuffer.limit(frameEnd);
+                    complete(readBuffer, scratch);
+                    readBuffer.limit(limit);
+                    readBuffer.position(frameEnd);
+                }
+                readBuffer.compact();
+            }
+        } catch (IOException e) {
+            pendingCalls.values().forEach(call -> call.future.completeExceptionally(e));
+            pendingCalls.clear();
+        }
+    }
+
+    private void complete(ByteBuffer frame, byte[] scratch) {
+        long requestId = frame.getLong();
+        byte status = frame.get();
+        PendingCall<?> call = pendingCalls.remove(requestId);
+        if (call == null) return;
+        if (status == STATUS_OK) {
+            call.complete(frame, scratch);
+            return;
+        }
+        short count = frame.getShort();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(getString(frame, scratch));
+        }
+        call.future.completeExceptionally(toException(reasonOf(status), values, call.amountRequested));
+    }
+
+    /**
+     * Map a received exception message to the exception thrown by service providers.
+     */
+    private static Exception toException(ExceptionMessage.Reason reason, List<String> values,
+                                         BigDecimal amountRequested) {
+        String value = values.isEmpty() ? null : values.get(0);
+        switch (reason) {
+            case ACCOUNT_NOT_FOUND:
+                return new AccountNotFoundException(value);
+            case ACCOUNT_IS_BLOCKED:
+                return new AccountBlockedException(value);
+            case NOT_ENOUGH_FUNDS:
+                return new NotEnoughFundsException(amountRequested, new BigDecimal(value));
+            case INVALID_PARAM:
+                return new IllegalArgumentException(value);
+            case OVERLOADED:
+                return new RejectedExecutionException(value);
+            default:
+                return new IllegalStateException("Unknown service exception");
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(ByteBuffer frame, byte[] scratch);
+    }
+
+    /**
+     * Request waiting for response.
+     */
+    private static final class PendingCall<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final BigDecimal amountRequested;
+        private final ResponseReader<T> reader;
+
+        private PendingCall(BigDecimal amountRequested, ResponseReader<T> reader) {
+            this.amountRequested = amountRequested;
+            this.reader = reader;
+        }
+
+        private void complete(ByteBuffer frame, byte[] scratch) {
+            future.complete(reader.read(frame, scratch));
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package me.akrasenkov.transfer.binary;
+
+import me.akrasenkov.transfer.exception.AccountBlockedException;
+import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
+import me.akrasenkov.transfer.exception.impl.NotEnoughFundsException;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.ExceptionMessage;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferResult;
+import me.akrasenkov.transfer.provider.AccountStateProvider;
+import me.akrasenkov.transfer.provider.TransferServiceProvider;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import javax.inject.Inject;
+
+import static me.akrasenkov.transfer.binary.BinaryProtocol.HEADER_SIZE;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.LENGTH_PREFIX_SIZE;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.MAX_FRAME_LENGTH;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.OP_CREATE_ACCOUNT;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.OP_GET_ACCOUNT;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.OP_TRANSFER;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.STATUS_OK;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.getDecimal;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.getString;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.putAccountState;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.putString;
+import static me.akrasenkov.transfer.binary.BinaryProtocol.statusOf;
+
+/**
+ * Application binary TCP API. Serves {@link BinaryProtocol} frames over persistent connections.
+ * <p>
+ * A single I/O thread owns the selector and all connection buffers: it decodes requests straight
+ * from a reused per-connection read buffer and encodes responses into a reused per-connection write buffer.
+ * Requests are executed with asynchronous provider calls, so pipelined requests of one connection run
+ * concurrently and their responses are written back as soon as they are ready, correlated by request ID.
+ */
+public class TransferServiceBinaryApi {
+
+    /**
+     * Connection buffers size. Must fit at least one frame of maximum length.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of requests of one connection being executed at once.
+     * Connection reading is paused when exceeded.
+     */
+    private static final int MAX_IN_FLIGHT = 1024;
+
+    private final TransferServiceProvider transferServiceProvider;
+    private final AccountStateProvider accountStateProvider;
+
+    /**
+     * Connections having responses ready to be written by I/O thread.
+     */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread ioThread;
+    private volatile boolean stopped;
+
+    @Inject
+    public TransferServiceBinaryApi(TransferServiceProvider transferServiceProvider,
+                                    AccountStateProvider accountStateProvider) {
+        this.transferServiceProvider = transferServiceProvider;
+        this.accountStateProvider = accountStateProvider;
+    }
+
+    /**
+     * Binary API initialization. Binds server socket and starts I/O thread.
+     *
+     * @param port application port to serve binary API
+     */
+    public void init(int port) {
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ioThread = new Thread(this::serve, "binary-api-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Stop serving binary API. Closes server socket and all connections. Does nothing if API was not initialized.
+     */
+    public void stop() {
+        if (ioThread == null) return;
+        // Selector keys belong to I/O thread, so it closes them itself
+        stopped = true;
+        selector.wakeup();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * I/O thread main loop.
+     */
+    private void serve() {
+        try {
+            while (!stopped) {
+                selector.select();
+                Connection connection;
+                while ((connection = pendingWrites.poll()) != null) {
+                    try {
+                        connection.flush();
+                    } catch (RuntimeException e) {
+                        connection.close();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    } catch (RuntimeException e) {
+                        // I/O thread serves all connections, so a failure of one must only drop that one
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Close server socket, all connections and selector. Called by I/O thread when it stops.
+     */
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Map an exception thrown during request execution to exception message,
+     * the same way as RESTful API does.
+     *
+     * @param ex exception
+     * @return exception message
+     */
+    private static ExceptionMessage toExceptionMessage(Throwable ex) {
+        ExceptionMessage.ExceptionMessageBuilder message = ExceptionMessage.builder();
+        if (ex instanceof AccountNotFoundException) {
+            message.reason(ExceptionMessage.Reason.ACCOUNT_NOT_FOUND)
+                    .value(((AccountNotFoundException) ex).getAccountId());
+        } else if (ex instanceof AccountBlockedException) {
+            message.reason(ExceptionMessage.Reason.ACCOUNT_IS_BLOCKED)
+                    .value(((AccountBlockedException) ex).getAccountId());
+        } else if (ex instanceof NotEnoughFundsException) {
+            message.reason(ExceptionMessage.Reason.NOT_ENOUGH_FUNDS)
+                    .value(((NotEnoughFundsException) ex).getAmountAvailable().toString());
+        } else if (ex instanceof IllegalArgumentException) {
+            message.reason(ExceptionMessage.Reason.INVALID_PARAM)
+                    .value(ex.getMessage());
+        } else if (ex instanceof RejectedExecutionException) {
+            message.reason(ExceptionMessage.Reason.OVERLOADED)
+                    .value(ex.getMessage());
+        } else {
+            message.reason(ExceptionMessage.Reason.UNKNOWN);
+        }
+        return message.build();
+    }
+
+    /**
+     * Result of request execution, waiting to be written.
+     */
+    private static final class Reply {
+        private final long requestId;
+        private final Object result;
+        private final Throwable exception;
+
+        private Reply(long requestId, Object result, Throwable exception) {
+            this.requestId = requestId;
+            this.result = result;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * Client connection state. Buffers are accessed by I/O thread only.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final byte[] scratch = new byte[MAX_FRAME_LENGTH];
+        private final Queue<Reply> replies = new ConcurrentLinkedQueue<>();
+
+        private SelectionKey key;
+        private int inFlight;
+        private boolean closed;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            readFrames();
+        }
+
+        /**
+         * Decode and dispatch all complete frames from read buffer, until in-flight limit is reached.
+         */
+        private void readFrames() {
+            readBuffer.flip();
+            while (readBuffer.remaining() >= LENGTH_PREFIX_SIZE && inFlight < MAX_IN_FLIGHT) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < HEADER_SIZE || length > MAX_FRAME_LENGTH) {
+                    // Protocol violation, there is no way to find next frame
+                    close();
+                    return;
+                }
+                if (readBuffer.remaining() < LENGTH_PREFIX_SIZE + length) break;
+                int limit = readBuffer.limit();
+                int frameEnd = readBuffer.position() + LENGTH_PREFIX_SIZE + length;
+                readBuffer.position(readBuffer.position() + LENGTH_PREFIX_SIZE);
+                readBuffer.limit(frameEnd);
+                dispatch(readBuffer);
+                readBuffer.limit(limit);
+                readBuffer.position(frameEnd);
+            }
+            readBuffer.compact();
+            updateInterest();
+        }
+
+        private void dispatch(ByteBuffer frame) {
+            long requestId = frame.getLong();
+            byte opcode = frame.get();
+            inFlight++;
+            try {
+                switch (opcode) {
+                    case OP_TRANSFER:
+                        Transfer transfer = Transfer.builder()
+                                .senderId(getString(frame, scratch))
+                                .receiverId(getString(frame, scratch))
+                                .amount(getDecimal(frame))
+                                .build();
+                        if (transfer.getSenderId() == null) throw new IllegalArgumentException("senderId");
+                        if (transfer.getReceiverId() == null) throw new IllegalArgumentException("receiverId");
+                        if (transfer.getAmount() == null || transfer.getAmount().signum() <= 0) {
+                            throw new IllegalArgumentException("amount");
+                        }
+                        complete(requestId, transferServiceProvider.tryPerformTransferAsync(transfer));
+                        break;
+                    case OP_GET_ACCOUNT:
+                        String accountId = getString(frame, scratch);
+                        if (accountId == null) throw new IllegalArgumentException("accountId");
+                        complete(requestId, accountStateProvider.getAccountStateAsync(accountId));
+                        break;
+                    case OP_CREATE_ACCOUNT:
+                        AccountState state = BinaryProtocol.getAccountState(frame, scratch);
+                        complete(requestId, accountStateProvider.saveAccountStateAsync(state));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("opcode");
+                }
+            } catch (BufferUnderflowException e) {
+                enqueue(new Reply(requestId, null, new IllegalArgumentException("frame")));
+            } catch (IllegalArgumentException e) {
+                enqueue(new Reply(requestId, null, e));
+            }
+        }
+
+        private void complete(long requestId, CompletableFuture<?> request) {
+            request.whenComplete((result, ex) -> {
+                if (ex instanceof CompletionException && ex.getCause() != null) {
+                    ex = ex.getCause();
+                }
+                enqueue(new Reply(requestId, result, ex));
+            });
+        }
+
+        /**
+         * Queue a reply for writing and wake I/O thread up. Can be called from any thread.
+         */
+        private void enqueue(Reply reply) {
+            replies.add(reply);
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Encode ready replies and write them until socket buffer is full.
+         */
+        private void flush() {
+            if (closed) return;
+            boolean drained;
+            try {
+                do {
+                    Reply reply;
+                    while (writeBuffer.remaining() >= LENGTH_PREFIX_SIZE + MAX_FRAME_LENGTH
+                            && (reply = replies.poll()) != null) {
+                        encode(reply);
+                        inFlight--;
+                    }
+                    writeBuffer.flip();
+                    channel.write(writeBuffer);
+                    drained = !writeBuffer.hasRemaining();
+                    writeBuffer.compact();
+                } while (drained && !replies.isEmpty());
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (inFlight < MAX_IN_FLIGHT && readBuffer.position() > 0) {
+                // Resume frames left in read buffer when in-flight limit was reached
+                readFrames();
+            } else {
+                updateInterest();
+            }
+        }
+
+        /**
+         * Encode a reply. Reply which does not fit a frame, e.g. with an account balance of thousands of digits,
+         * is replaced with {@link ExceptionMessage.Reason#UNKNOWN}, as the client could not read it anyway.
+         */
+        private void encode(Reply reply) {
+            int start = writeBuffer.position();
+            try {
+                encodeFrame(reply);
+                if (writeBuffer.position() - start - LENGTH_PREFIX_SIZE <= MAX_FRAME_LENGTH) return;
+            } catch (BufferOverflowException e) {
+                // Does not fit the buffer, so neither a frame
+            }
+            writeBuffer.position(start);
+            encodeFrame(new Reply(reply.requestId, null, new IllegalStateException("Response is too large")));
+        }
+
+        private void encodeFrame(Reply reply) {
+            int start = writeBuffer.position();
+            writeBuffer.putInt(0);
+            writeBuffer.putLong(reply.requestId);
+            if (reply.result instanceof TransferResult && ((TransferResult) reply.result).isRejected()) {
+                putExceptionMessage(((TransferResult) reply.result).getRejection().toExceptionMessage());
+            } else if (reply.exception == null) {
+                writeBuffer.put(STATUS_OK);
+                if (reply.result instanceof AccountState) {
+                    putAccountState(writeBuffer, (AccountState) reply.result);
+                }
+            } else {
+                putExceptionMessage(toExceptionMessage(reply.exception));
+            }
+            writeBuffer.putInt(start, writeBuffer.position() - start - LENGTH_PREFIX_SIZE);
+        }
+
+        private void putExceptionMessage(ExceptionMessage message) {
+            writeBuffer.put(statusOf(message.getReason()));
+            writeBuffer.putShort((short) message.getValues().size());
+            for (String value : message.getValues()) {
+                putString(writeBuffer, value);
+            }
+        }
+
+        private void updateInterest() {
+            if (closed || !key.isValid()) return;
+            int ops = 0;
+            if (inFlight < MAX_IN_FLIGHT) ops |= SelectionKey.OP_READ;
+            if (writeBuffer.position() > 0) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        private void close() {
+            if (closed) return;
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do, connection is dropped anyway
+            }
+        }
+    }
+}
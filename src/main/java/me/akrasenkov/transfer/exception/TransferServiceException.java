@@ -1,4 +1,12 @@
 package me.akrasenkov.transfer.exception;
 
 public abstract class TransferServiceException extends Exception {
+
+    /**
+     * Service exceptions report expected business outcomes, so they are created
+     * without stack trace and suppression to keep them cheap.
+     */
+    protected TransferServiceException() {
+        super(null, null, false, false);
+    }
 }
@@ -0,0 +1,194 @@
+package me.akrasenkov.transfer.feed;
+
+import com.google.common.base.Preconditions;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.ChangeEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Bounded in-memory ring of committed account changes, numbered with increasing sequence numbers from 1.
+ * <p>
+ * Consumers read from their own cursor without any locking, so they never slow writers down.
+ * A consumer which falls behind by more than the ring capacity gets a {@link ChangeEvent.Type#GAP}
+ * event instead of the changes overwritten, and continues after them.
+ * <p>
+ * Changes are kept only while there are subscribed consumers. Without them, writers {@link #skip} changes:
+ * they are numbered, but not made into events, and consumers coming later get a gap instead of them.
+ */
+public class ChangeFeed {
+
+    private final int capacity;
+    private final AtomicReferenceArray<ChangeEvent> ring;
+
+    /**
+     * Sequence number of the last change written to the ring. Guarded by this for writes.
+     */
+    private volatile long lastSequence;
+
+    /**
+     * Monitor for consumers waiting for changes, with the number of them. Writers signal only if there are any.
+     */
+    private final Object signal = new Object();
+    private volatile int waiters;
+
+    /**
+     * Number of consumers streaming changes.
+     */
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    /**
+     * Sequence number of the last change skipped. Guarded by this for writes.
+     */
+    private volatile long lastSkipped;
+
+    @Inject
+    public ChangeFeed(@Named(AppModule.FEED_CAPACITY) int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Publish committed account states, in commit order.
+     *
+     * @param states committed account states
+     */
+    public void publish(List<AccountState> states) {
+        if (states.isEmpty()) return;
+        synchronized (this) {
+            long sequence = lastSequence;
+            for (AccountState state : states) {
+                sequence++;
+                ring.set(slot(sequence), ChangeEvent.change(sequence, state));
+            }
+            // Published after the slots are set, so consumers never see an empty slot below it
+            lastSequence = sequence;
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Number committed changes without making them into events, when there are no subscribers to read them.
+     * A consumer subscribing meanwhile gets a gap instead of them.
+     *
+     * @param count number of committed changes
+     */
+    public void skip(int count) {
+        if (count == 0) return;
+        synchronized (this) {
+            // Set before the last sequence, so consumers seeing the changes also see them skipped
+            lastSkipped = lastSequence + count;
+            lastSequence = lastSkipped;
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Register a consumer, so changes are kept for it until it {@link #unsubscribe unsubscribes}.
+     */
+    public void subscribe() {
+        subscribers.incrementAndGet();
+    }
+
+    public void unsubscribe() {
+        subscribers.decrementAndGet();
+    }
+
+    /**
+     * @return true if changes should be published, false if they should be skipped
+     */
+    public boolean hasSubscribers() {
+        return subscribers.get() > 0;
+    }
+
+    /**
+     * @return sequence number of the last change published, or 0 if there were none
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Read changes after the cursor, waiting for them if there are none yet.
+     *
+     * @param cursor    sequence number of the last change read, 0 to read from the oldest change kept
+     * @param maxEvents maximum number of events to return
+     * @param timeout   maximum time to wait for changes
+     * @param unit      time unit of timeout
+     * @return changes in sequence order, a single gap event if changes after the cursor were overwritten,
+     * or an empty list if there were no changes within timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<ChangeEvent> poll(long cursor, int maxEvents, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (lastSequence <= cursor && !await(cursor, unit.toNanos(timeout))) {
+            return Collections.emptyList();
+        }
+        long last = lastSequence;
+        long oldest = oldestKept(last);
+        if (cursor + 1 < oldest) {
+            return Collections.singletonList(ChangeEvent.gap(oldest - 1));
+        }
+
+        long end = Math.min(last, cursor + maxEvents);
+        List<ChangeEvent> events = new ArrayList<>((int) (end - cursor));
+        for (long sequence = cursor + 1; sequence <= end; sequence++) {
+            ChangeEvent event = ring.get(slot(sequence));
+            if (event.getSequence() != sequence) {
+                // Overwritten while reading, the next poll reports the gap
+                break;
+            }
+            events.add(event);
+        }
+        if (events.isEmpty()) {
+            return Collections.singletonList(ChangeEvent.gap(oldestKept(lastSequence) - 1));
+        }
+        return events;
+    }
+
+    /**
+     * @return sequence number of the oldest change kept in the ring, neither overwritten nor skipped
+     */
+    private long oldestKept(long last) {
+        return Math.max(Math.max(1, last - capacity + 1), lastSkipped + 1);
+    }
+
+    private void signalWaiters() {
+        if (waiters > 0) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+    }
+
+    private boolean await(long cursor, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (signal) {
+            // Counted before checking the sequence, so a writer either sees the waiter or the waiter sees the change
+            waiters++;
+            try {
+                while (lastSequence <= cursor) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return false;
+                    TimeUnit.NANOSECONDS.timedWait(signal, remaining);
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
@@ -0,0 +1,15 @@
+package me.akrasenkov.transfer.id;
+
+/**
+ * Generator of unique record IDs.
+ */
+public interface IdGenerator {
+
+    /**
+     * Create a new unique ID. Can be called concurrently from any thread.
+     *
+     * @return unique ID
+     */
+    String generateId();
+
+}
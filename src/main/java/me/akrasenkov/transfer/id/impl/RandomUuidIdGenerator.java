@@ -0,0 +1,18 @@
+package me.akrasenkov.transfer.id.impl;
+
+import me.akrasenkov.transfer.id.IdGenerator;
+
+import java.util.UUID;
+
+/**
+ * Generator of random UUIDs.
+ * Kept for compatibility with IDs issued before time-ordered IDs were introduced.
+ * Collision probability of random UUIDs is negligible, so no collision check is performed.
+ */
+public class RandomUuidIdGenerator implements IdGenerator {
+
+    @Override
+    public String generateId() {
+        return UUID.randomUUID().toString();
+    }
+}
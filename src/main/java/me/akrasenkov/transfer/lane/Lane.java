@@ -0,0 +1,120 @@
+package me.akrasenkov.transfer.lane;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.akrasenkov.transfer.metrics.LatencyHistogram;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution lane of one kind of requests: a fixed number of threads with a bounded queue in front of them.
+ * <p>
+ * A caller hands its task over to the lane and waits for it, so a lane holds at most {@link #getCapacity()}
+ * callers at once. Tasks beyond that are rejected at once instead of waiting, so a saturated lane
+ * cannot take over the threads of the caller, e.g. the HTTP server threads other lanes are served by.
+ */
+public class Lane implements Closeable {
+
+    private final String name;
+    private final int threads;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+
+    private final LatencyHistogram waitLatency = new LatencyHistogram();
+    private final LatencyHistogram serviceLatency = new LatencyHistogram();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param name          lane name, which also names its threads
+     * @param threads       number of threads running tasks
+     * @param queueCapacity number of tasks waiting for a thread, beyond which tasks are rejected
+     */
+    public Lane(String name, int threads, int queueCapacity) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+        this.name = name;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(name + "-lane-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Run a task in the lane and wait for its result. Exception thrown by the task is rethrown as it is.
+     *
+     * @param task task to run
+     * @param <T>  type of task result
+     * @return task result
+     * @throws RejectedExecutionException with lane name as message, if the lane is full
+     * @throws Exception                  if the task failed
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        long submitted = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                waitLatency.record(started - submitted, TimeUnit.NANOSECONDS);
+                try {
+                    return task.call();
+                } finally {
+                    serviceLatency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            throw new RejectedExecutionException(name, e);
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) throw (Error) cause;
+            throw (Exception) cause;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * @return maximum number of callers the lane holds at once: running and queued tasks
+     */
+    public int getCapacity() {
+        return threads + queueCapacity;
+    }
+
+    /**
+     * @return counters and latencies of lane since its creation
+     */
+    public LaneStats getStats() {
+        return LaneStats.builder()
+                .name(name)
+                .threads(threads)
+                .queueCapacity(queueCapacity)
+                .queueDepth(executor.getQueue().size())
+                .activeCount(executor.getActiveCount())
+                .completedCount(executor.getCompletedTaskCount())
+                .rejectedCount(rejectedCount.sum())
+                .waitLatency(waitLatency.getStats())
+                .serviceLatency(serviceLatency.getStats())
+                .build();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,32 @@
+package me.akrasenkov.transfer.lane;
+
+import lombok.Builder;
+import lombok.Data;
+import me.akrasenkov.transfer.metrics.LatencyStats;
+
+/**
+ * Counters and latencies of {@link Lane} since its creation.
+ */
+@Data
+@Builder
+public class LaneStats {
+
+    private String name;
+    private int threads;
+    private int queueCapacity;
+    private int queueDepth;
+    private int activeCount;
+    private long completedCount;
+    private long rejectedCount;
+
+    /**
+     * Latencies from task submission to its start, spent in queue.
+     */
+    private LatencyStats waitLatency;
+
+    /**
+     * Latencies of task runs.
+     */
+    private LatencyStats serviceLatency;
+
+}
@@ -0,0 +1,93 @@
+package me.akrasenkov.transfer.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in microseconds, with relative error of percentiles below 12.5%.
+ * <p>
+ * Latencies below 16 microseconds get a bucket each. Above that, every power of two is split into
+ * 8 buckets of equal width. Recording is a couple of atomic increments, without locks or allocation.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_EXPONENT = 4;
+    private static final int BUCKETS = LINEAR_BUCKETS + (Long.SIZE - LINEAR_EXPONENT) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param duration latency
+     * @param unit     unit of latency
+     */
+    public void record(long duration, TimeUnit unit) {
+        long micros = Math.max(0, unit.toMicros(duration));
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @return number of latencies recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Estimate a percentile of recorded latencies. Estimate is the upper bound of its bucket,
+     * so it is never below the exact percentile.
+     *
+     * @param percentile percentile in range (0, 100]
+     * @return latency in microseconds, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        // Concurrent records counted in total, but not in buckets yet
+        return max.get();
+    }
+
+    /**
+     * @return summary of recorded latencies
+     */
+    public LatencyStats getStats() {
+        return LatencyStats.builder()
+                .count(getCount())
+                .p50Micros(percentile(50))
+                .p99Micros(percentile(99))
+                .maxMicros(max.get())
+                .build();
+    }
+
+    private static int bucket(long micros) {
+        if (micros < LINEAR_BUCKETS) return (int) micros;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - LINEAR_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) return bucket;
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_EXPONENT;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * width + width - 1;
+    }
+}
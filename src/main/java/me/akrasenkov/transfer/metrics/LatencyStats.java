@@ -0,0 +1,18 @@
+package me.akrasenkov.transfer.metrics;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Summary of latencies recorded by {@link LatencyHistogram}.
+ */
+@Data
+@Builder
+public class LatencyStats {
+
+    private final long count;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+}
@@ -0,0 +1,39 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.Singular;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Aggregate statistics over all accounts as of one consistent state, domain representation.
+ */
+@Data
+@Builder
+public class AccountStats {
+
+    private final long accountCount;
+    private final long blockedCount;
+    private final long negativeCount;
+    private final BigDecimal totalBalance;
+
+    /**
+     * Accounts with the greatest balances, from the greatest.
+     */
+    @Singular
+    private final List<AccountState> topAccounts;
+
+    /**
+     * Total balance expected from funds put into accounts by account saves, as transfers only move funds.
+     * Null if it could not be checked.
+     */
+    private final BigDecimal expectedTotalBalance;
+
+    /**
+     * Whether total balance is the expected one. Null if it could not be checked.
+     */
+    private final Boolean conserved;
+
+}
@@ -0,0 +1,19 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * Query of many accounts at once domain representation.
+ */
+@Data
+@Builder
+public class AccountsQuery {
+
+    @Singular
+    private final List<String> accountIds;
+
+}
@@ -0,0 +1,23 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * Result of {@link AccountsQuery} domain representation.
+ * Accounts not found are listed by ID instead of failing the whole query.
+ */
+@Data
+@Builder
+public class AccountsQueryResult {
+
+    @Singular
+    private final List<AccountState> accounts;
+
+    @Singular("notFound")
+    private final List<String> notFound;
+
+}
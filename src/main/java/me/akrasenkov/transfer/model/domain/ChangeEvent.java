@@ -0,0 +1,66 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Change feed event domain representation.
+ */
+@Data
+@Builder
+public class ChangeEvent {
+
+    private final Type type;
+
+    /**
+     * For {@link Type#CHANGE}: sequence number of the change.
+     * For {@link Type#GAP}: last sequence number lost, the feed continues right after it.
+     * For {@link Type#HEARTBEAT}: sequence number of the last change sent.
+     */
+    private final long sequence;
+
+    private final String accountId;
+    private final Boolean blocked;
+    private final BigDecimal balance;
+
+    public enum Type {
+        /**
+         * Committed account state.
+         */
+        CHANGE,
+        /**
+         * Changes were overwritten before the consumer read them.
+         */
+        GAP,
+        /**
+         * No changes for a while, the feed is alive.
+         */
+        HEARTBEAT
+    }
+
+    public static ChangeEvent change(long sequence, AccountState state) {
+        return builder()
+                .type(Type.CHANGE)
+                .sequence(sequence)
+                .accountId(state.getAccountId())
+                .blocked(state.isBlocked())
+                .balance(state.getBalance())
+                .build();
+    }
+
+    public static ChangeEvent gap(long lastLostSequence) {
+        return builder()
+                .type(Type.GAP)
+                .sequence(lastLostSequence)
+                .build();
+    }
+
+    public static ChangeEvent heartbeat(long sequence) {
+        return builder()
+                .type(Type.HEARTBEAT)
+                .sequence(sequence)
+                .build();
+    }
+}
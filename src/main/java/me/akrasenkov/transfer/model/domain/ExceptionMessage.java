@@ -23,7 +23,9 @@ public class ExceptionMessage {
         NOT_ENOUGH_FUNDS,
         ACCOUNT_IS_BLOCKED,
         INVALID_PARAM,
-        UNKNOWN
+        UNKNOWN,
+        // Appended, as binary protocol encodes reasons by ordinal
+        OVERLOADED
     }
 
 }
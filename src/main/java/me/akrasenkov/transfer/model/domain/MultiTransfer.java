@@ -0,0 +1,47 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.Singular;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Funds transfer of many legs, applied as one atomic unit, domain representation.
+ * Typical ones are one-to-many (payouts) and many-to-one (collections).
+ */
+@Data
+@Builder
+public class MultiTransfer {
+
+    @Singular
+    private final List<Transfer> legs;
+
+    /**
+     * Sum up legs into one balance change per account, so every account is debited or credited once.
+     *
+     * @return balance changes by account ID, sorted by ID
+     */
+    public SortedMap<String, BigDecimal> netChanges() {
+        SortedMap<String, BigDecimal> changes = new TreeMap<>();
+        for (Transfer leg : legs) {
+            changes.merge(leg.getSenderId(), leg.getAmount().negate(), BigDecimal::add);
+            changes.merge(leg.getReceiverId(), leg.getAmount(), BigDecimal::add);
+        }
+        return changes;
+    }
+
+    /**
+     * @return total amount of all legs
+     */
+    public BigDecimal totalAmount() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Transfer leg : legs) {
+            total = total.add(leg.getAmount());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,23 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Funds transfer of many legs receipt domain representation.
+ */
+@Data
+@Builder
+public class MultiTransferReceipt {
+
+    private final int legCount;
+    private final BigDecimal totalAmount;
+
+    public static MultiTransferReceiptBuilder from(MultiTransfer transfer) {
+        return builder()
+                .legCount(transfer.getLegs().size())
+                .totalAmount(transfer.totalAmount());
+    }
+}
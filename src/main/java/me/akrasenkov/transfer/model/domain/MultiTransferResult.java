@@ -0,0 +1,28 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Funds transfer of many legs result domain representation: either a receipt or a rejection.
+ */
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class MultiTransferResult {
+
+    private final MultiTransferReceipt receipt;
+    private final TransferRejection rejection;
+
+    public static MultiTransferResult success(MultiTransferReceipt receipt) {
+        return new MultiTransferResult(receipt, null);
+    }
+
+    public static MultiTransferResult rejected(TransferRejection rejection) {
+        return new MultiTransferResult(null, rejection);
+    }
+
+    public boolean isRejected() {
+        return rejection != null;
+    }
+}
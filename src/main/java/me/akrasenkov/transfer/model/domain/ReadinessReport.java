@@ -0,0 +1,32 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+import me.akrasenkov.transfer.metrics.LatencyStats;
+
+/**
+ * Readiness of the app to serve traffic, with startup measurements, domain representation.
+ */
+@Data
+@Builder
+public class ReadinessReport {
+
+    private final boolean ready;
+
+    /**
+     * Milliseconds from JVM start to readiness, null while not ready.
+     */
+    private final Long startupMillis;
+
+    /**
+     * Milliseconds and operations spent warming up, null while not ready.
+     */
+    private final Long warmupMillis;
+    private final Long warmupOperations;
+
+    /**
+     * Latencies of requests handled during the first minute after readiness.
+     */
+    private final LatencyStats firstMinute;
+
+}
@@ -0,0 +1,72 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.Builder;
+import lombok.Data;
+import me.akrasenkov.transfer.exception.AccountBlockedException;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
+import me.akrasenkov.transfer.exception.impl.NotEnoughFundsException;
+
+import java.math.BigDecimal;
+
+/**
+ * Funds transfer rejection domain representation.
+ */
+@Data
+@Builder
+public class TransferRejection {
+
+    private final ExceptionMessage.Reason reason;
+    private final String accountId;
+    private final BigDecimal amountRequested;
+    private final BigDecimal amountAvailable;
+
+    public static TransferRejection accountNotFound(String accountId) {
+        return builder().reason(ExceptionMessage.Reason.ACCOUNT_NOT_FOUND).accountId(accountId).build();
+    }
+
+    public static TransferRejection accountBlocked(String accountId) {
+        return builder().reason(ExceptionMessage.Reason.ACCOUNT_IS_BLOCKED).accountId(accountId).build();
+    }
+
+    public static TransferRejection notEnoughFunds(BigDecimal amountRequested, BigDecimal amountAvailable) {
+        return builder()
+                .reason(ExceptionMessage.Reason.NOT_ENOUGH_FUNDS)
+                .amountRequested(amountRequested)
+                .amountAvailable(amountAvailable)
+                .build();
+    }
+
+    /**
+     * Convert rejection to exception message, the same as produced for the corresponding exception.
+     *
+     * @return exception message for this rejection
+     */
+    public ExceptionMessage toExceptionMessage() {
+        String value = reason == ExceptionMessage.Reason.NOT_ENOUGH_FUNDS
+                ? amountAvailable.toString()
+                : accountId;
+        return ExceptionMessage.builder()
+                .reason(reason)
+                .value(value)
+                .build();
+    }
+
+    /**
+     * Convert rejection to the corresponding exception.
+     *
+     * @return exception for this rejection
+     */
+    public TransferServiceException toException() {
+        switch (reason) {
+            case ACCOUNT_NOT_FOUND:
+                return new AccountNotFoundException(accountId);
+            case ACCOUNT_IS_BLOCKED:
+                return new AccountBlockedException(accountId);
+            case NOT_ENOUGH_FUNDS:
+                return new NotEnoughFundsException(amountRequested, amountAvailable);
+            default:
+                throw new IllegalStateException("Unexpected rejection reason: " + reason);
+        }
+    }
+}
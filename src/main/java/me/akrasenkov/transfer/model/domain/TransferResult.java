@@ -0,0 +1,28 @@
+package me.akrasenkov.transfer.model.domain;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Funds transfer result domain representation: either a receipt or a rejection.
+ */
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class TransferResult {
+
+    private final TransferReceipt receipt;
+    private final TransferRejection rejection;
+
+    public static TransferResult success(TransferReceipt receipt) {
+        return new TransferResult(receipt, null);
+    }
+
+    public static TransferResult rejected(TransferRejection rejection) {
+        return new TransferResult(null, rejection);
+    }
+
+    public boolean isRejected() {
+        return rejection != null;
+    }
+}
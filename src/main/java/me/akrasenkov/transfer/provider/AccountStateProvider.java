@@ -3,6 +3,10 @@ package me.akrasenkov.transfer.provider;
 import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
 import me.akrasenkov.transfer.exception.TransferServiceException;
 import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.AccountsQuery;
+import me.akrasenkov.transfer.model.domain.AccountsQueryResult;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Provider of account states.
@@ -19,6 +23,14 @@ public interface AccountStateProvider {
      */
     AccountState getAccountState(String id) throws AccountNotFoundException;
 
+    /**
+     * Get account states for many IDs at once, all as of one consistent state of accounts.
+     *
+     * @param query IDs of accounts to get
+     * @return found account states in order of queried IDs, and IDs of accounts not found
+     */
+    AccountsQueryResult getAccountStates(AccountsQuery query);
+
     /**
      * Save an account state.
      *
@@ -28,4 +40,22 @@ public interface AccountStateProvider {
      */
     AccountState saveAccountState(AccountState state) throws TransferServiceException;
 
+    /**
+     * Get account state for specified ID asynchronously on provider executor.
+     *
+     * @param id account ID
+     * @return future of account state for specified ID,
+     * completed exceptionally with {@link AccountNotFoundException} if account with provided ID not found
+     */
+    CompletableFuture<AccountState> getAccountStateAsync(String id);
+
+    /**
+     * Save an account state asynchronously on provider executor.
+     *
+     * @param state account state
+     * @return future of saved account state,
+     * completed exceptionally with {@link TransferServiceException} if an exception occurred during account saving
+     */
+    CompletableFuture<AccountState> saveAccountStateAsync(AccountState state);
+
 }
@@ -0,0 +1,19 @@
+package me.akrasenkov.transfer.provider;
+
+import me.akrasenkov.transfer.model.domain.AccountStats;
+
+/**
+ * Provider of aggregate statistics over all accounts.
+ */
+public interface AccountStatsProvider {
+
+    /**
+     * Compute statistics over all accounts as of one consistent state, without blocking transfers,
+     * and check that transfers conserved money.
+     *
+     * @param topCount number of accounts with the greatest balances to return
+     * @return statistics over all accounts
+     */
+    AccountStats getAccountStats(int topCount);
+
+}
@@ -1,8 +1,14 @@
 package me.akrasenkov.transfer.provider;
 
 import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.MultiTransferReceipt;
+import me.akrasenkov.transfer.model.domain.MultiTransferResult;
 import me.akrasenkov.transfer.model.domain.Transfer;
 import me.akrasenkov.transfer.model.domain.TransferReceipt;
+import me.akrasenkov.transfer.model.domain.TransferResult;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Provider of funds transfer service. Can perform a funds transfer between accounts.
@@ -18,4 +24,51 @@ public interface TransferServiceProvider {
      */
     TransferReceipt performTransfer(Transfer transfer) throws TransferServiceException;
 
+    /**
+     * Perform a funds transfer, returning a rejection instead of throwing an exception
+     * when the transfer is not allowed.
+     *
+     * @param transfer funds transfer parameters
+     * @return receipt for performed funds transfer or rejection reason
+     * @throws TransferServiceException if an unexpected exception occurred during the transfer
+     */
+    TransferResult tryPerformTransfer(Transfer transfer) throws TransferServiceException;
+
+    /**
+     * Perform a funds transfer asynchronously on provider executor.
+     *
+     * @param transfer funds transfer parameters
+     * @return future of receipt for performed funds transfer,
+     * completed exceptionally with {@link TransferServiceException} if an exception occurred during the transfer
+     */
+    CompletableFuture<TransferReceipt> performTransferAsync(Transfer transfer);
+
+    /**
+     * Perform a funds transfer asynchronously on provider executor, returning a rejection
+     * instead of an exception when the transfer is not allowed.
+     *
+     * @param transfer funds transfer parameters
+     * @return future of receipt for performed funds transfer or rejection reason
+     */
+    CompletableFuture<TransferResult> tryPerformTransferAsync(Transfer transfer);
+
+    /**
+     * Perform a funds transfer of many legs atomically: either all legs are performed, or none of them.
+     *
+     * @param transfer funds transfer legs
+     * @return combined receipt for performed legs
+     * @throws TransferServiceException if an exception occurred during the transfer
+     */
+    MultiTransferReceipt performMultiTransfer(MultiTransfer transfer) throws TransferServiceException;
+
+    /**
+     * Perform a funds transfer of many legs atomically, returning a rejection instead of throwing an exception
+     * when any of the legs is not allowed.
+     *
+     * @param transfer funds transfer legs
+     * @return combined receipt for performed legs or rejection reason
+     * @throws TransferServiceException if an unexpected exception occurred during the transfer
+     */
+    MultiTransferResult tryPerformMultiTransfer(MultiTransfer transfer) throws TransferServiceException;
+
 }
@@ -3,22 +3,36 @@ package me.akrasenkov.transfer.provider.impl;
 import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
 import me.akrasenkov.transfer.exception.TransferServiceException;
 import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.AccountsQuery;
+import me.akrasenkov.transfer.model.domain.AccountsQueryResult;
+import me.akrasenkov.transfer.AppModule;
 import me.akrasenkov.transfer.provider.AccountStateProvider;
 import me.akrasenkov.transfer.storage.AccountStateStorage;
 
 import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import static com.google.common.base.Predicates.isNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static me.akrasenkov.transfer.provider.impl.AsyncCalls.callAsync;
 
 public class AccountStateProviderImpl implements AccountStateProvider {
 
     private AccountStateStorage accountStateStorage;
+    private IssuedFunds issuedFunds;
+    private Executor executor;
 
     @Inject
-    public AccountStateProviderImpl(AccountStateStorage accountStateStorage) {
+    public AccountStateProviderImpl(AccountStateStorage accountStateStorage,
+                                    IssuedFunds issuedFunds,
+                                    @Named(AppModule.PROVIDER_EXECUTOR) Executor executor) {
         this.accountStateStorage = accountStateStorage;
+        this.issuedFunds = issuedFunds;
+        this.executor = executor;
     }
 
     @Override
@@ -27,20 +41,46 @@ public class AccountStateProviderImpl implements AccountStateProvider {
                 .orElseThrow(() -> new AccountNotFoundException(accountId));
     }
 
+    @Override
+    public AccountsQueryResult getAccountStates(AccountsQuery query) {
+        Map<String, AccountState> states = accountStateStorage.getAccountStatesByIds(query.getAccountIds());
+        AccountsQueryResult.AccountsQueryResultBuilder result = AccountsQueryResult.builder()
+                .accounts(states.values());
+        for (String accountId : query.getAccountIds()) {
+            if (!states.containsKey(accountId)) {
+                result.notFound(accountId);
+            }
+        }
+        return result.build();
+    }
+
     @Override
     public AccountState saveAccountState(AccountState state) throws TransferServiceException {
+        String accountId = state.getAccountId();
+        if (isNullOrEmpty(accountId)) {
+            // Create a new ID if not provided. ID generation does not need the transaction.
+            accountId = accountStateStorage.generateUniqueId();
+        }
+        // Account without a balance is saved empty, so stored accounts always have one
+        BigDecimal accountBalance = state.getBalance() == null ? BigDecimal.ZERO : state.getBalance();
+        AccountState stateWithId = AccountState.from(state).accountId(accountId).balance(accountBalance).build();
         return accountStateStorage.performTransaction(storage -> {
-            String accountId = state.getAccountId();
-            BigDecimal accountBalance = state.getBalance();
-            if (isNullOrEmpty(accountId)) {
-                // Create a new ID if not provided
-                accountId = storage.generateUniqueId();
-            }
-            if (accountBalance == null) {
-                accountBalance = BigDecimal.ZERO;
-            }
-            AccountState stateWithId = AccountState.from(state).accountId(accountId).build();
+            // Saved balance replaces the previous one, so the difference enters or leaves accounts
+            BigDecimal previousBalance = accountStateStorage.getAccountStateById(stateWithId.getAccountId())
+                    .map(AccountState::getBalance)
+                    .orElse(BigDecimal.ZERO);
+            issuedFunds.add(accountBalance.subtract(previousBalance));
             return accountStateStorage.saveAccountState(stateWithId);
         });
     }
+
+    @Override
+    public CompletableFuture<AccountState> getAccountStateAsync(String accountId) {
+        return callAsync(() -> getAccountState(accountId), executor);
+    }
+
+    @Override
+    public CompletableFuture<AccountState> saveAccountStateAsync(AccountState state) {
+        return callAsync(() -> saveAccountState(state), executor);
+    }
 }
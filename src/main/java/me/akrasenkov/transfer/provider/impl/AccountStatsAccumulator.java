@@ -0,0 +1,98 @@
+package me.akrasenkov.transfer.provider.impl;
+
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.AccountStats;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collector;
+
+/**
+ * Partial statistics over a part of accounts. Every fork-join worker fills its own,
+ * and they are merged pairwise when workers join, so no state is shared during the scan.
+ */
+final class AccountStatsAccumulator {
+
+    /**
+     * Order of accounts from the smallest balance, then from the greatest ID, so ties are resolved the same way
+     * however accounts are split.
+     */
+    private static final Comparator<AccountState> BALANCE_ORDER =
+            Comparator.comparing(AccountState::getBalance)
+                    .thenComparing(AccountState::getAccountId, Comparator.reverseOrder());
+
+    private final int topCount;
+    private long accountCount;
+    private long blockedCount;
+    private long negativeCount;
+    private BigDecimal totalBalance = BigDecimal.ZERO;
+
+    /**
+     * Accounts with the greatest balances so far, the smallest of them on top.
+     */
+    private final PriorityQueue<AccountState> top;
+
+    private AccountStatsAccumulator(int topCount) {
+        this.topCount = topCount;
+        this.top = new PriorityQueue<>(Math.max(1, topCount), BALANCE_ORDER);
+    }
+
+    static Collector<AccountState, ?, AccountStatsAccumulator> collector(int topCount) {
+        return Collector.of(
+                () -> new AccountStatsAccumulator(topCount),
+                AccountStatsAccumulator::add,
+                AccountStatsAccumulator::merge);
+    }
+
+    BigDecimal getTotalBalance() {
+        return totalBalance;
+    }
+
+    /**
+     * @return statistics builder with accumulated values
+     */
+    AccountStats.AccountStatsBuilder toStats() {
+        List<AccountState> topAccounts = new ArrayList<>(top);
+        topAccounts.sort(Collections.reverseOrder(BALANCE_ORDER));
+        return AccountStats.builder()
+                .accountCount(accountCount)
+                .blockedCount(blockedCount)
+                .negativeCount(negativeCount)
+                .totalBalance(totalBalance)
+                .topAccounts(topAccounts);
+    }
+
+    private void add(AccountState account) {
+        BigDecimal balance = account.getBalance();
+        accountCount++;
+        if (account.isBlocked()) blockedCount++;
+        if (balance.signum() < 0) negativeCount++;
+        totalBalance = totalBalance.add(balance);
+        offerTop(account);
+    }
+
+    private AccountStatsAccumulator merge(AccountStatsAccumulator other) {
+        accountCount += other.accountCount;
+        blockedCount += other.blockedCount;
+        negativeCount += other.negativeCount;
+        totalBalance = totalBalance.add(other.totalBalance);
+        for (AccountState account : other.top) {
+            offerTop(account);
+        }
+        return this;
+    }
+
+    private void offerTop(AccountState account) {
+        if (topCount == 0) return;
+        if (top.size() < topCount) {
+            top.add(account);
+        } else if (BALANCE_ORDER.compare(account, top.peek()) > 0) {
+            top.poll();
+            top.add(account);
+        }
+    }
+}
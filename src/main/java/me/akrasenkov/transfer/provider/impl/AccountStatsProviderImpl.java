@@ -0,0 +1,59 @@
+package me.akrasenkov.transfer.provider.impl;
+
+import me.akrasenkov.transfer.model.domain.AccountStats;
+import me.akrasenkov.transfer.provider.AccountStatsProvider;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+
+import java.math.BigDecimal;
+import javax.inject.Inject;
+
+public class AccountStatsProviderImpl implements AccountStatsProvider {
+
+    /**
+     * Number of scans made while accounts get funded meanwhile, before giving up the conservation check.
+     */
+    private static final int MAX_SCANS = 3;
+
+    private final AccountStateStorage accountStateStorage;
+    private final IssuedFunds issuedFunds;
+
+    /**
+     * Funds found in accounts, but not put there since start, e.g. kept by a persistent storage.
+     * Taken from the first checked statistics, which become the baseline of later checks. Guarded by this.
+     */
+    private BigDecimal unissuedFunds;
+
+    @Inject
+    public AccountStatsProviderImpl(AccountStateStorage accountStateStorage, IssuedFunds issuedFunds) {
+        this.accountStateStorage = accountStateStorage;
+        this.issuedFunds = issuedFunds;
+    }
+
+    @Override
+    public AccountStats getAccountStats(int topCount) {
+        for (int scan = 1; ; scan++) {
+            long changeCount = issuedFunds.getChangeCount();
+            BigDecimal issued = issuedFunds.getAmount();
+            AccountStatsAccumulator result = accountStateStorage.collectAccounts(
+                    AccountStatsAccumulator.collector(topCount));
+            if (issuedFunds.getChangeCount() == changeCount) {
+                // No funds were put into accounts during the scan, so the snapshot includes exactly the issued ones
+                return check(result, issued);
+            }
+            if (scan == MAX_SCANS) {
+                return result.toStats().build();
+            }
+        }
+    }
+
+    private synchronized AccountStats check(AccountStatsAccumulator result, BigDecimal issued) {
+        if (unissuedFunds == null) {
+            unissuedFunds = result.getTotalBalance().subtract(issued);
+        }
+        BigDecimal expected = unissuedFunds.add(issued);
+        return result.toStats()
+                .expectedTotalBalance(expected)
+                .conserved(expected.compareTo(result.getTotalBalance()) == 0)
+                .build();
+    }
+}
@@ -0,0 +1,40 @@
+package me.akrasenkov.transfer.provider.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Helper for running blocking provider calls asynchronously.
+ */
+final class AsyncCalls {
+
+    private AsyncCalls() {
+    }
+
+    /**
+     * Run a call on executor. Unlike {@link CompletableFuture#supplyAsync}, the call may throw
+     * checked exceptions: they complete the returned future exceptionally as they are, without wrapping.
+     *
+     * @param call     call to run
+     * @param executor executor to run call on
+     * @param <T>      type of call result
+     * @return future of call result
+     */
+    static <T> CompletableFuture<T> callAsync(Callable<T> call, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
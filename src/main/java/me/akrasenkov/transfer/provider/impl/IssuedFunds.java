@@ -0,0 +1,35 @@
+package me.akrasenkov.transfer.provider.impl;
+
+import java.math.BigDecimal;
+
+/**
+ * Net funds put into accounts by account saves since start. Saves are the only way for funds
+ * to enter or leave accounts, as transfers only move them, so this is what the total balance must change by.
+ * <p>
+ * Changed within storage transactions, together with the saves.
+ */
+public class IssuedFunds {
+
+    private BigDecimal amount = BigDecimal.ZERO;
+    private long changeCount;
+
+    synchronized void add(BigDecimal change) {
+        if (change.signum() == 0) return;
+        amount = amount.add(change);
+        changeCount++;
+    }
+
+    /**
+     * @return net funds put into accounts
+     */
+    synchronized BigDecimal getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return number of changes of the amount, to detect ones made meanwhile
+     */
+    synchronized long getChangeCount() {
+        return changeCount;
+    }
+}
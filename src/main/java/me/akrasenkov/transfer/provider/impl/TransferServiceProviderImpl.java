@@ -1,68 +1,83 @@
 package me.akrasenkov.transfer.provider.impl;
 
-import me.akrasenkov.transfer.exception.AccountBlockedException;
-import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
-import me.akrasenkov.transfer.exception.impl.NotEnoughFundsException;
+import me.akrasenkov.transfer.AppModule;
 import me.akrasenkov.transfer.exception.TransferServiceException;
-import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.MultiTransferReceipt;
+import me.akrasenkov.transfer.model.domain.MultiTransferResult;
 import me.akrasenkov.transfer.model.domain.Transfer;
 import me.akrasenkov.transfer.model.domain.TransferReceipt;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.model.domain.TransferResult;
 import me.akrasenkov.transfer.provider.TransferServiceProvider;
 import me.akrasenkov.transfer.storage.AccountStateStorage;
 
-import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import javax.inject.Inject;
+import javax.inject.Named;
+
+import static me.akrasenkov.transfer.provider.impl.AsyncCalls.callAsync;
 
 public class TransferServiceProviderImpl implements TransferServiceProvider {
 
     private final AccountStateStorage accountStateStorage;
+    private final Executor executor;
 
     @Inject
-    public TransferServiceProviderImpl(AccountStateStorage accountStateStorage) {
+    public TransferServiceProviderImpl(AccountStateStorage accountStateStorage,
+                                       @Named(AppModule.PROVIDER_EXECUTOR) Executor executor) {
         this.accountStateStorage = accountStateStorage;
+        this.executor = executor;
     }
 
     @Override
     public TransferReceipt performTransfer(Transfer transfer) throws TransferServiceException {
-        accountStateStorage.performTransaction(storage -> {
-            String senderId = transfer.getSenderId();
-            String receiverId = transfer.getReceiverId();
-            BigDecimal transferAmount = transfer.getAmount();
+        TransferResult result = tryPerformTransfer(transfer);
+        if (result.isRejected()) {
+            throw result.getRejection().toException();
+        }
+        return result.getReceipt();
+    }
 
-            // Get participating accounts states or throw exception if not found
-            AccountState sender = storage.getAccountStateById(senderId)
-                    .orElseThrow(() -> new AccountNotFoundException(senderId));
-            AccountState receiver = storage.getAccountStateById(receiverId)
-                    .orElseThrow(() -> new AccountNotFoundException(receiverId));
-            // Check if any account is blocked
-            if (sender.isBlocked()) throw new AccountBlockedException(senderId);
-            if (receiver.isBlocked()) throw new AccountBlockedException(receiverId);
+    @Override
+    public TransferResult tryPerformTransfer(Transfer transfer) throws TransferServiceException {
+        // Storage checks and moves funds by itself, returning a rejection, or null if transfer was performed
+        TransferRejection rejection = accountStateStorage.transferFunds(
+                transfer.getSenderId(), transfer.getReceiverId(), transfer.getAmount());
+        if (rejection != null) {
+            return TransferResult.rejected(rejection);
+        }
+        // Create transfer receipt based on performed transfer
+        return TransferResult.success(TransferReceipt.from(transfer).build());
+    }
 
-            // Calculate new balances
-            BigDecimal newSenderBalance = sender.getBalance().subtract(transferAmount);
-            BigDecimal newReceiverBalance = receiver.getBalance().add(transferAmount);
-            AccountState newSenderState = updateAccountBalance(sender, newSenderBalance);
-            AccountState newReceiverState = updateAccountBalance(receiver, newReceiverBalance);
-            if (isNegative(newSenderBalance)) {
-                // Throw exception, if senderId does not have enough funds to transfer.
-                // Then transaction is terminated.
-                throw new NotEnoughFundsException(transferAmount, sender.getBalance());
-            }
-            // Save states if transfer is OK
-            storage.saveAccountState(newSenderState);
-            storage.saveAccountState(newReceiverState);
+    @Override
+    public MultiTransferReceipt performMultiTransfer(MultiTransfer transfer) throws TransferServiceException {
+        MultiTransferResult result = tryPerformMultiTransfer(transfer);
+        if (result.isRejected()) {
+            throw result.getRejection().toException();
+        }
+        return result.getReceipt();
+    }
 
-            return newSenderState;
-        });
-        // Create transfer receipt based on performed transfer
-        return TransferReceipt.from(transfer).build();
+    @Override
+    public MultiTransferResult tryPerformMultiTransfer(MultiTransfer transfer) throws TransferServiceException {
+        // Storage applies all legs in one transaction, or rejects the whole transfer
+        TransferRejection rejection = accountStateStorage.transferFunds(transfer);
+        if (rejection != null) {
+            return MultiTransferResult.rejected(rejection);
+        }
+        return MultiTransferResult.success(MultiTransferReceipt.from(transfer).build());
     }
 
-    private static boolean isNegative(BigDecimal number) {
-        return number.compareTo(BigDecimal.ZERO) < 0;
+    @Override
+    public CompletableFuture<TransferReceipt> performTransferAsync(Transfer transfer) {
+        return callAsync(() -> performTransfer(transfer), executor);
     }
 
-    private static AccountState updateAccountBalance(AccountState account, BigDecimal balance) {
-        return AccountState.from(account).balance(balance).build();
+    @Override
+    public CompletableFuture<TransferResult> tryPerformTransferAsync(Transfer transfer) {
+        return callAsync(() -> tryPerformTransfer(transfer), executor);
     }
 }
@@ -0,0 +1,55 @@
+package me.akrasenkov.transfer.recording;
+
+/**
+ * Recording of request body parsing as {@link ParseEvent}, or response serialization as {@link SerializationEvent},
+ * if it is slow. Does nothing while no recording takes the event, or JDK Flight Recorder is not available.
+ */
+public abstract class BodyRecording {
+
+    static final BodyRecording NONE = new BodyRecording() {
+        @Override
+        public boolean end() {
+            return false;
+        }
+
+        @Override
+        public void commit(String type, int size) {
+        }
+    };
+
+    BodyRecording() {
+    }
+
+    /**
+     * Start timing request body parsing.
+     *
+     * @return recording of the parsing
+     */
+    public static BodyRecording beginParse() {
+        return FlightRecorder.isAvailable() ? Jfr.beginParse() : NONE;
+    }
+
+    /**
+     * Start timing response serialization.
+     *
+     * @return recording of the serialization
+     */
+    public static BodyRecording beginSerialization() {
+        return FlightRecorder.isAvailable() ? Jfr.beginSerialization() : NONE;
+    }
+
+    /**
+     * Stop timing.
+     *
+     * @return whether parsing or serialization lasted at least the threshold, so its details are to be committed
+     */
+    public abstract boolean end();
+
+    /**
+     * Record parsing or serialization with its details.
+     *
+     * @param type simple name of the parsed or serialized type
+     * @param size length of the parsed body, or number of serialized elements
+     */
+    public abstract void commit(String type, int size);
+}
@@ -0,0 +1,116 @@
+package me.akrasenkov.transfer.recording;
+
+import me.akrasenkov.transfer.AppModule;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Continuous JDK Flight Recorder recording of slow request phases: route handling, parsing,
+ * transaction lock wait, transaction execution and serialization.
+ * <p>
+ * Only events lasting at least the threshold are recorded, so the recording can be left on in production.
+ * Faster ones cost a couple of timestamp reads. The recording keeps a bounded history on disk,
+ * which can be dumped on demand.
+ * <p>
+ * JDK Flight Recorder classes are only used through {@link Jfr}, once they are found in the running JDK.
+ * Without them, the recording is not started and events are not recorded.
+ */
+public class FlightRecorder implements Closeable {
+
+    public static final String CATEGORY = "Transfer Service";
+
+    /**
+     * Threshold of events recorded by recordings which do not set their own, e.g. started with {@code jcmd}.
+     */
+    public static final String DEFAULT_THRESHOLD = "20 ms";
+
+    /**
+     * Outcomes of storage transactions.
+     */
+    public static final String TRANSFERRED = "TRANSFERRED";
+    public static final String COMMITTED = "COMMITTED";
+    public static final String FAILED = "FAILED";
+
+    private static final boolean AVAILABLE = isJfrAvailable();
+
+    private final boolean enabled;
+    private final Duration threshold;
+
+    private Jfr.ContinuousRecording recording;
+
+    @Inject
+    public FlightRecorder(@Named(AppModule.RECORDING_ENABLED) boolean enabled,
+                          @Named(AppModule.RECORDING_THRESHOLD) long thresholdMillis) {
+        this.enabled = enabled;
+        this.threshold = Duration.ofMillis(thresholdMillis);
+    }
+
+    /**
+     * @return whether the running JDK has JDK Flight Recorder, so events can be recorded
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Start the recording, if it is enabled, JDK Flight Recorder is available and the recording is not started yet.
+     */
+    public synchronized void start() {
+        if (!enabled || !AVAILABLE || recording != null) return;
+        recording = Jfr.startRecording(threshold);
+    }
+
+    /**
+     * @return whether the recording is running
+     */
+    public synchronized boolean isRunning() {
+        return recording != null;
+    }
+
+    /**
+     * Write events recorded so far in JFR file format, to be opened with JDK Mission Control or {@code jfr} tool.
+     *
+     * @param out output to write to
+     * @throws IOException if recording cannot be written
+     * @throws IllegalStateException if recording is not running
+     */
+    public synchronized void dump(OutputStream out) throws IOException {
+        if (recording == null) {
+            throw new IllegalStateException("Recording is not running");
+        }
+        Path file = Files.createTempFile("transfer-service", ".jfr");
+        try {
+            recording.dump(file);
+            Files.copy(file, out);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /**
+     * Look JDK Flight Recorder up by reflection, so none of its classes is linked unless it is there.
+     */
+    private static boolean isJfrAvailable() {
+        try {
+            Class<?> type = Class.forName("jdk.jfr.FlightRecorder", false, FlightRecorder.class.getClassLoader());
+            return (Boolean) type.getMethod("isAvailable").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package me.akrasenkov.transfer.recording;
+
+import com.google.common.collect.ImmutableList;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Holder of all uses of JDK Flight Recorder classes. It is only loaded once {@link FlightRecorder#isAvailable()}
+ * found JFR in the running JDK, so the app runs without recording on JDKs lacking it, e.g. OpenJDK 8 before 8u262.
+ * <p>
+ * Events are only created while a recording takes them, so nothing is allocated for them otherwise.
+ */
+final class Jfr {
+
+    private static final List<Class<? extends Event>> EVENT_TYPES = ImmutableList.of(
+            RequestEvent.class,
+            ParseEvent.class,
+            TransactionWaitEvent.class,
+            TransactionEvent.class,
+            SerializationEvent.class);
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(30);
+    private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final EventType REQUEST = EventType.getEventType(RequestEvent.class);
+    private static final EventType PARSE = EventType.getEventType(ParseEvent.class);
+    private static final EventType SERIALIZATION = EventType.getEventType(SerializationEvent.class);
+    private static final EventType TRANSACTION_WAIT = EventType.getEventType(TransactionWaitEvent.class);
+    private static final EventType TRANSACTION = EventType.getEventType(TransactionEvent.class);
+
+    private Jfr() {
+    }
+
+    static ContinuousRecording startRecording(Duration threshold) {
+        Recording recording = new Recording();
+        recording.setName("transfer-service");
+        recording.setToDisk(true);
+        recording.setMaxAge(MAX_AGE);
+        recording.setMaxSize(MAX_SIZE);
+        for (Class<? extends Event> type : EVENT_TYPES) {
+            recording.enable(type).withThreshold(threshold);
+        }
+        recording.start();
+        return new ContinuousRecording(recording);
+    }
+
+    static RequestRecording beginRequest() {
+        return REQUEST.isEnabled() ? new Request() : RequestRecording.NONE;
+    }
+
+    static BodyRecording beginParse() {
+        return PARSE.isEnabled() ? new Parse() : BodyRecording.NONE;
+    }
+
+    static BodyRecording beginSerialization() {
+        return SERIALIZATION.isEnabled() ? new Serialization() : BodyRecording.NONE;
+    }
+
+    static boolean isTransactionEnabled() {
+        return TRANSACTION_WAIT.isEnabled() || TRANSACTION.isEnabled();
+    }
+
+    static TransactionRecording beginTransaction() {
+        return new Transaction();
+    }
+
+    /**
+     * Recording started by the app, kept until closed.
+     */
+    static final class ContinuousRecording implements Closeable {
+        private final Recording recording;
+
+        private ContinuousRecording(Recording recording) {
+            this.recording = recording;
+        }
+
+        void dump(Path file) throws IOException {
+            recording.dump(file);
+        }
+
+        @Override
+        public void close() {
+            recording.close();
+        }
+    }
+
+    private static final class Request extends RequestRecording {
+        private final RequestEvent event = new RequestEvent();
+
+        private Request() {
+            event.begin();
+        }
+
+        @Override
+        public boolean end() {
+            event.end();
+            return event.shouldCommit();
+        }
+
+        @Override
+        public void commit(String method, String path, int status, String exception, long queueTime) {
+            event.setMethod(method);
+            event.setPath(path);
+            event.setStatus(status);
+            event.setException(exception);
+            event.setQueueTime(queueTime);
+            event.commit();
+        }
+    }
+
+    private static final class Parse extends BodyRecording {
+        private final ParseEvent event = new ParseEvent();
+
+        private Parse() {
+            event.begin();
+        }
+
+        @Override
+        public boolean end() {
+            event.end();
+            return event.shouldCommit();
+        }
+
+        @Override
+        public void commit(String type, int size) {
+            event.setType(type);
+            event.setLength(size);
+            event.commit();
+        }
+    }
+
+    private static final class Serialization extends BodyRecording {
+        private final SerializationEvent event = new SerializationEvent();
+
+        private Serialization() {
+            event.begin();
+        }
+
+        @Override
+        public boolean end() {
+            event.end();
+            return event.shouldCommit();
+        }
+
+        @Override
+        public void commit(String type, int size) {
+            event.setType(type);
+            event.setElements(size);
+            event.commit();
+        }
+    }
+
+    /**
+     * Both events are committed if either is slow, so lock wait and execution of the transaction are found together.
+     */
+    private static final class Transaction extends TransactionRecording {
+        private final TransactionWaitEvent waitEvent = new TransactionWaitEvent();
+        private TransactionEvent event;
+
+        private Transaction() {
+            waitEvent.begin();
+        }
+
+        @Override
+        public void locked() {
+            waitEvent.end();
+            event = new TransactionEvent();
+            event.begin();
+        }
+
+        @Override
+        void record(String outcome) {
+            event.end();
+            if (waitEvent.shouldCommit() || event.shouldCommit()) {
+                String accountIds = accountIds();
+                waitEvent.setAccountIds(accountIds);
+                waitEvent.setOutcome(outcome);
+                waitEvent.commit();
+                event.setAccountIds(accountIds);
+                event.setOutcome(outcome);
+                event.commit();
+            }
+        }
+    }
+}
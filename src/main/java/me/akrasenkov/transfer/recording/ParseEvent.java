@@ -0,0 +1,31 @@
+package me.akrasenkov.transfer.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import lombok.Setter;
+
+/**
+ * Parsing of a RESTful API request body.
+ */
+@Name("me.akrasenkov.transfer.Parse")
+@Label("Parse")
+@Category({FlightRecorder.CATEGORY, "API"})
+@Description("Parsing of RESTful API request body")
+@Threshold(FlightRecorder.DEFAULT_THRESHOLD)
+@StackTrace(false)
+@Setter
+public class ParseEvent extends Event {
+
+    @Label("Type")
+    private String type;
+
+    @Label("Length")
+    @DataAmount(DataAmount.BYTES)
+    private int length;
+}
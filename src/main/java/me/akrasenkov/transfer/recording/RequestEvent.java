@@ -0,0 +1,44 @@
+package me.akrasenkov.transfer.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+import lombok.Setter;
+
+/**
+ * Handling of a RESTful API request by its route, from the route start until its result is returned.
+ * Serialization of the result is recorded separately by {@link SerializationEvent}.
+ */
+@Name("me.akrasenkov.transfer.Request")
+@Label("Request")
+@Category({FlightRecorder.CATEGORY, "API"})
+@Description("Handling of RESTful API request by its route")
+@Threshold(FlightRecorder.DEFAULT_THRESHOLD)
+@StackTrace(false)
+@Setter
+public class RequestEvent extends Event {
+
+    @Label("Method")
+    private String method;
+
+    @Label("Path")
+    @Description("Request path, including account IDs")
+    private String path;
+
+    @Label("Status")
+    private int status;
+
+    @Label("Exception")
+    @Description("Exception thrown by the route, mapped to response later")
+    private String exception;
+
+    @Label("Queue Time")
+    @Description("Time from receiving the request by the server until the route started")
+    @Timespan(Timespan.MILLISECONDS)
+    private long queueTime;
+}
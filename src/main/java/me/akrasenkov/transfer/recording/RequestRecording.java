@@ -0,0 +1,49 @@
+package me.akrasenkov.transfer.recording;
+
+/**
+ * Recording of RESTful API request handling as {@link RequestEvent}, if it is slow.
+ * Does nothing while no recording takes the event, or JDK Flight Recorder is not available.
+ */
+public abstract class RequestRecording {
+
+    static final RequestRecording NONE = new RequestRecording() {
+        @Override
+        public boolean end() {
+            return false;
+        }
+
+        @Override
+        public void commit(String method, String path, int status, String exception, long queueTime) {
+        }
+    };
+
+    RequestRecording() {
+    }
+
+    /**
+     * Start timing request handling.
+     *
+     * @return recording of the request
+     */
+    public static RequestRecording begin() {
+        return FlightRecorder.isAvailable() ? Jfr.beginRequest() : NONE;
+    }
+
+    /**
+     * Stop timing request handling.
+     *
+     * @return whether handling lasted at least the threshold, so details of the request are to be committed
+     */
+    public abstract boolean end();
+
+    /**
+     * Record request handling with its details.
+     *
+     * @param method    request method
+     * @param path      request path
+     * @param status    response status
+     * @param exception simple name of exception thrown by the route, or null
+     * @param queueTime milliseconds from receiving the request until the route started
+     */
+    public abstract void commit(String method, String path, int status, String exception, long queueTime);
+}
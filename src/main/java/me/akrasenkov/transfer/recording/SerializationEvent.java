@@ -0,0 +1,30 @@
+package me.akrasenkov.transfer.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import lombok.Setter;
+
+/**
+ * Serialization of a RESTful API response, written at once or streamed.
+ */
+@Name("me.akrasenkov.transfer.Serialization")
+@Label("Serialization")
+@Category({FlightRecorder.CATEGORY, "API"})
+@Description("Serialization of RESTful API response")
+@Threshold(FlightRecorder.DEFAULT_THRESHOLD)
+@StackTrace(false)
+@Setter
+public class SerializationEvent extends Event {
+
+    @Label("Type")
+    private String type;
+
+    @Label("Elements")
+    @Description("Number of elements of streamed response, 1 otherwise")
+    private int elements;
+}
@@ -0,0 +1,36 @@
+package me.akrasenkov.transfer.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import lombok.Setter;
+
+/**
+ * Execution of a storage transaction within the transaction lock.
+ */
+@Name("me.akrasenkov.transfer.Transaction")
+@Label("Transaction")
+@Category({FlightRecorder.CATEGORY, "Storage"})
+@Description("Execution of storage transaction within the transaction lock")
+@Threshold(FlightRecorder.DEFAULT_THRESHOLD)
+@StackTrace(false)
+@Setter
+public class TransactionEvent extends Event {
+
+    /**
+     * Accounts of a transfer, comma-separated, or null for a generic transaction.
+     */
+    @Label("Account IDs")
+    private String accountIds;
+
+    /**
+     * {@link FlightRecorder#TRANSFERRED} or rejection reason for a transfer,
+     * {@link FlightRecorder#COMMITTED} or {@link FlightRecorder#FAILED} for a generic transaction.
+     */
+    @Label("Outcome")
+    private String outcome;
+}
@@ -0,0 +1,130 @@
+package me.akrasenkov.transfer.recording;
+
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+
+import java.util.Collection;
+
+/**
+ * Recording of a storage transaction as {@link TransactionWaitEvent} and {@link TransactionEvent}, if it is slow.
+ * Does nothing while no recording takes the events, or JDK Flight Recorder is not available.
+ * <p>
+ * Only the outermost transaction of a thread is recorded, by the storage holding the transaction lock, so every
+ * transaction is recorded once however many storages it passes. Transfers made within it describe it with their
+ * accounts and outcome, wherever they are made in the chain of storages.
+ */
+public abstract class TransactionRecording {
+
+    private static final TransactionRecording NONE = new TransactionRecording() {
+        @Override
+        public void locked() {
+        }
+
+        @Override
+        void record(String outcome) {
+        }
+    };
+
+    private static final ThreadLocal<TransactionRecording> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Accounts of a transfer made within the transaction, kept as they are until the events are committed.
+     */
+    private String senderId;
+    private String receiverId;
+    private Collection<String> accountIds;
+    private String outcome;
+
+    TransactionRecording() {
+    }
+
+    /**
+     * Start timing the wait for the transaction lock. Called before the lock is taken.
+     *
+     * @return recording of the transaction, doing nothing if the transaction is nested
+     */
+    public static TransactionRecording begin() {
+        if (!isEnabled() || CURRENT.get() != null) return NONE;
+        TransactionRecording recording = Jfr.beginTransaction();
+        CURRENT.set(recording);
+        return recording;
+    }
+
+    /**
+     * Describe the transaction of the current thread as a transfer between two accounts.
+     *
+     * @param senderId   sender account ID
+     * @param receiverId receiver account ID
+     * @param rejection  rejection of the transfer, or null if it was performed
+     * @return the same rejection
+     */
+    public static TransferRejection transfer(String senderId, String receiverId, TransferRejection rejection) {
+        TransactionRecording current = current();
+        if (current != null) {
+            current.senderId = senderId;
+            current.receiverId = receiverId;
+            current.outcome = outcome(rejection);
+        }
+        return rejection;
+    }
+
+    /**
+     * Describe the transaction of the current thread as a transfer between many accounts.
+     *
+     * @param accountIds account IDs
+     * @param rejection  rejection of the transfer, or null if it was performed
+     * @return the same rejection
+     */
+    public static TransferRejection transfer(Collection<String> accountIds, TransferRejection rejection) {
+        TransactionRecording current = current();
+        if (current != null) {
+            current.accountIds = accountIds;
+            current.outcome = outcome(rejection);
+        }
+        return rejection;
+    }
+
+    /**
+     * Stop timing the wait and start timing the execution. Called once the lock is taken.
+     */
+    public abstract void locked();
+
+    /**
+     * Stop timing the execution and commit events if the transaction is slow. Called before the lock is released.
+     *
+     * @param completed whether the transaction completed rather than failed with exception
+     */
+    public void end(boolean completed) {
+        if (this == NONE) return;
+        CURRENT.remove();
+        if (!completed) {
+            record(FlightRecorder.FAILED);
+        } else {
+            record(outcome == null ? FlightRecorder.COMMITTED : outcome);
+        }
+    }
+
+    /**
+     * Commit events with the outcome, if the transaction is slow.
+     */
+    abstract void record(String outcome);
+
+    /**
+     * @return accounts of the transfer made within the transaction, comma-separated, or null if there was none
+     */
+    String accountIds() {
+        if (senderId != null) return senderId + ',' + receiverId;
+        return accountIds == null ? null : String.join(",", accountIds);
+    }
+
+    private static TransactionRecording current() {
+        return isEnabled() ? CURRENT.get() : null;
+    }
+
+    private static boolean isEnabled() {
+        return FlightRecorder.isAvailable() && Jfr.isTransactionEnabled();
+    }
+
+    private static String outcome(TransferRejection rejection) {
+        return rejection == null ? FlightRecorder.TRANSFERRED : rejection.getReason().name();
+    }
+}
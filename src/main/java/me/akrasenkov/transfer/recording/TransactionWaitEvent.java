@@ -0,0 +1,30 @@
+package me.akrasenkov.transfer.recording;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import lombok.Setter;
+
+/**
+ * Wait of a storage transaction for the transaction lock.
+ * Committed together with the {@link TransactionEvent} of the same transaction, so it carries its outcome too.
+ */
+@Name("me.akrasenkov.transfer.TransactionWait")
+@Label("Transaction Wait")
+@Category({FlightRecorder.CATEGORY, "Storage"})
+@Description("Wait of storage transaction for the transaction lock")
+@Threshold(FlightRecorder.DEFAULT_THRESHOLD)
+@StackTrace(false)
+@Setter
+public class TransactionWaitEvent extends Event {
+
+    @Label("Account IDs")
+    private String accountIds;
+
+    @Label("Outcome")
+    private String outcome;
+}
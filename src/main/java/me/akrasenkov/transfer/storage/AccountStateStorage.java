@@ -2,8 +2,18 @@ package me.akrasenkov.transfer.storage;
 
 import me.akrasenkov.transfer.exception.TransferServiceException;
 import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.recording.TransactionRecording;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.stream.Collector;
 
 /**
  * An interface for account storage providers.
@@ -18,6 +28,27 @@ public interface AccountStateStorage {
      */
     Optional<AccountState> getAccountStateById(String accountId);
 
+    /**
+     * Get account states for many IDs at once, all as of one consistent state of storage.
+     * Can be called outside of transaction.
+     *
+     * @param accountIds account IDs
+     * @return found account states by ID, in order of provided IDs. Accounts not found are absent.
+     */
+    Map<String, AccountState> getAccountStatesByIds(Collection<String> accountIds);
+
+    /**
+     * Reduce all accounts as of one consistent state of storage, without blocking transactions during the scan.
+     * Accounts are passed to the collector in parallel where storage can split them, so it must combine
+     * partial results as {@link java.util.stream.Stream#collect(Collector)} of a parallel stream requires.
+     * Can be called outside of transaction.
+     *
+     * @param collector reduction of accounts
+     * @param <R>       type of reduction result
+     * @return reduction result
+     */
+    <R> R collectAccounts(Collector<? super AccountState, ?, R> collector);
+
     /**
      * Save an account state.
      *
@@ -28,19 +59,109 @@ public interface AccountStateStorage {
 
     /**
      * Create a new datastore-wise unique ID for a record.
+     * Can be called outside of transaction.
      *
      * @return unique ID for a record.
      */
     String generateUniqueId();
 
+    /**
+     * Move funds between two accounts as one transaction, if both accounts exist and are not blocked,
+     * and sender has enough funds. Transfer to the same account does not change its balance.
+     * <p>
+     * Default implementation reads and saves account states within {@link #performTransaction},
+     * describing it as this transfer in flight recording. Storages able to change accounts in place
+     * should override it to avoid intermediate objects.
+     *
+     * @param senderId   sender account ID
+     * @param receiverId receiver account ID
+     * @param amount     amount to transfer
+     * @return rejection if transfer was not performed, or null if it was
+     * @throws TransferServiceException if an exception occurred during datastore transaction
+     */
+    default TransferRejection transferFunds(String senderId, String receiverId, BigDecimal amount)
+            throws TransferServiceException {
+        Transaction<TransferRejection> transfer = storage -> {
+            // Get participating accounts states or reject if not found
+            AccountState sender = storage.getAccountStateById(senderId).orElse(null);
+            if (sender == null) return TransferRejection.accountNotFound(senderId);
+            AccountState receiver = storage.getAccountStateById(receiverId).orElse(null);
+            if (receiver == null) return TransferRejection.accountNotFound(receiverId);
+            // Check if any account is blocked
+            if (sender.isBlocked()) return TransferRejection.accountBlocked(senderId);
+            if (receiver.isBlocked()) return TransferRejection.accountBlocked(receiverId);
+
+            // Reject, if sender does not have enough funds to transfer
+            BigDecimal newSenderBalance = sender.getBalance().subtract(amount);
+            if (newSenderBalance.signum() < 0) {
+                return TransferRejection.notEnoughFunds(amount, sender.getBalance());
+            }
+            if (senderId.equals(receiverId)) {
+                return null;
+            }
+            storage.saveAccountState(AccountState.from(sender).balance(newSenderBalance).build());
+            storage.saveAccountState(AccountState.from(receiver).balance(receiver.getBalance().add(amount)).build());
+            return null;
+        };
+        return performTransaction(storage ->
+                TransactionRecording.transfer(senderId, receiverId, transfer.apply(storage)));
+    }
+
+    /**
+     * Apply all legs of a transfer as one transaction, or none of them. Every account is debited or credited once
+     * with its net change, and transfer is rejected if any account does not exist, is blocked,
+     * or is debited to a negative balance. Credited accounts are not checked, so an account already
+     * in debt can be credited.
+     * <p>
+     * Default implementation reads and saves account states within {@link #performTransaction},
+     * taking accounts in ID order, and describes it as this transfer in flight recording.
+     * Storages able to change accounts in place should override it.
+     *
+     * @param transfer transfer legs
+     * @return rejection if transfer was not performed, or null if it was
+     * @throws TransferServiceException if an exception occurred during datastore transaction
+     */
+    default TransferRejection transferFunds(MultiTransfer transfer) throws TransferServiceException {
+        SortedMap<String, BigDecimal> changes = transfer.netChanges();
+        Transaction<TransferRejection> apply = storage -> {
+            List<AccountState> accounts = new ArrayList<>(changes.size());
+            for (String accountId : changes.keySet()) {
+                AccountState account = storage.getAccountStateById(accountId).orElse(null);
+                if (account == null) return TransferRejection.accountNotFound(accountId);
+                accounts.add(account);
+            }
+            for (AccountState account : accounts) {
+                if (account.isBlocked()) return TransferRejection.accountBlocked(account.getAccountId());
+            }
+            List<AccountState> updated = new ArrayList<>(changes.size());
+            for (AccountState account : accounts) {
+                BigDecimal change = changes.get(account.getAccountId());
+                BigDecimal newBalance = account.getBalance().add(change);
+                if (change.signum() < 0 && newBalance.signum() < 0) {
+                    return TransferRejection.notEnoughFunds(change.negate(), account.getBalance());
+                }
+                if (change.signum() != 0) {
+                    updated.add(AccountState.from(account).balance(newBalance).build());
+                }
+            }
+            for (AccountState account : updated) {
+                storage.saveAccountState(account);
+            }
+            return null;
+        };
+        return performTransaction(storage ->
+                TransactionRecording.transfer(changes.keySet(), apply.apply(storage)));
+    }
+
     /**
      * Execute a transaction within datastore context.
      *
      * @param transaction transaction to execute
-     * @return result of transaction - updated account state
+     * @param <T>         type of transaction result
+     * @return result of transaction
      * @throws TransferServiceException if an exception occurred during datastore transaction
      */
-    AccountState performTransaction(Transaction<AccountState> transaction) throws TransferServiceException;
+    <T> T performTransaction(Transaction<T> transaction) throws TransferServiceException;
 
     /**
      * Datastore transaction functional interface.
@@ -1,89 +1,360 @@
 package me.akrasenkov.transfer.storage.impl;
 
+import me.akrasenkov.transfer.AppModule;
 import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.id.IdGenerator;
 import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.recording.TransactionRecording;
 import me.akrasenkov.transfer.storage.AccountStateStorage;
-import me.akrasenkov.transfer.model.storage.AccountStateRecord;
 
-import java.util.HashMap;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.UUID;
-
-import static java.util.Optional.ofNullable;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collector;
+import javax.inject.Inject;
+import javax.inject.Named;
 
 public class InMemoryAccountStateStorage implements AccountStateStorage {
 
+    private static final long NO_SNAPSHOT = -1;
+
+    /**
+     * This implementation is based on {@link ConcurrentHashMap}, so reads are safe without locking.
+     * Writes are made within transactions, which are serialized by the map monitor.
+     * Accounts are kept in mutable slots, changed in place by writes.
+     */
+    private final Map<String, AccountSlot> storage;
+
+    /**
+     * Epoch stamped on slot writes, advanced by every snapshot. Guarded by the map monitor, as is the epoch
+     * of the running snapshot. A slot written after the snapshot keeps its state as of the snapshot,
+     * so scans see a consistent state of all accounts while transactions go on.
+     */
+    private long epoch;
+    private long snapshotEpoch = NO_SNAPSHOT;
+
     /**
-     * This implementation is based on not thread-safe {@link HashMap},
-     * but we use synchronization outside to make write requests thread-safe.
+     * Scans run one at a time, so slots need to keep a single older state.
      */
-    private final Map<String, AccountStateRecord> storage = new HashMap<>();
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    private final IdGenerator idGenerator;
+
+    public InMemoryAccountStateStorage(IdGenerator idGenerator) {
+        this(idGenerator, 0);
+    }
+
+    @Inject
+    public InMemoryAccountStateStorage(IdGenerator idGenerator,
+                                       @Named(AppModule.EXPECTED_ACCOUNTS) int expectedAccounts) {
+        this.idGenerator = idGenerator;
+        this.storage = new ConcurrentHashMap<>(expectedAccounts);
+        if (expectedAccounts > 0) {
+            // Map allocates its table on the first insert, so let's take it at startup rather than on the first account.
+            // Empty ID is never stored, as a new one is generated instead.
+            storage.put("", new AccountSlot(false, BigDecimal.ZERO, epoch));
+            storage.remove("");
+        }
+    }
 
     @Override
     public Optional<AccountState> getAccountStateById(String accountId) {
         // Get an account state for specified ID, or return empty Optional.
-        // There is no need for synchronization here.
-        return ofNullable(storage.get(accountId))
-                .map(record -> stateFromRecord(accountId, record));
+        // Slots are read with a version check and the map is concurrent, so there is no need for synchronization here.
+        AccountSlot slot = storage.get(accountId);
+        return slot == null ? Optional.empty() : Optional.of(slot.toState(accountId));
+    }
+
+    @Override
+    public Map<String, AccountState> getAccountStatesByIds(Collection<String> accountIds) {
+        // Slots are copied under the monitor, so no transaction commits in between.
+        // Domain objects are built after releasing it, to keep transactions waiting as short as possible.
+        String[] ids = accountIds.toArray(new String[0]);
+        boolean[] blocked = new boolean[ids.length];
+        BigDecimal[] balances = new BigDecimal[ids.length];
+        boolean[] found = new boolean[ids.length];
+        synchronized (storage) {
+            for (int i = 0; i < ids.length; i++) {
+                AccountSlot slot = storage.get(ids[i]);
+                if (slot != null) {
+                    found[i] = true;
+                    blocked[i] = slot.blocked;
+                    balances[i] = slot.balance;
+                }
+            }
+        }
+        Map<String, AccountState> states = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (found[i]) {
+                states.put(ids[i], AccountState.builder()
+                        .accountId(ids[i])
+                        .blocked(blocked[i])
+                        .balance(balances[i])
+                        .build());
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public <R> R collectAccounts(Collector<? super AccountState, ?, R> collector) {
+        // Taking a snapshot is just advancing the epoch within the monitor, so transactions wait for
+        // neither the scan nor a copy of accounts. Slots are split between fork-join workers by the map.
+        snapshotLock.lock();
+        try {
+            long snapshot;
+            synchronized (storage) {
+                snapshot = epoch++;
+                snapshotEpoch = snapshot;
+            }
+            try {
+                return storage.entrySet().parallelStream()
+                        .map(entry -> entry.getValue().toSnapshotState(entry.getKey(), snapshot))
+                        .filter(Objects::nonNull)
+                        .collect(collector);
+            } finally {
+                synchronized (storage) {
+                    snapshotEpoch = NO_SNAPSHOT;
+                }
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
     }
 
     @Override
     public AccountState saveAccountState(AccountState state) {
-        // Creating a datastore record with new state params
-        // and storing it separately from ID, which become a record key
-        AccountStateRecord record = AccountStateRecord.builder()
-                .balance(state.getBalance())
-                .blocked(state.isBlocked())
-                .build();
-        storage.put(state.getAccountId(), record);
+        // Slot of existing account is changed in place, and a new one is stored separately from ID,
+        // which become a slot key. Slot writers must be serialized, so the monitor is taken
+        // (it is already held within transaction).
+        synchronized (storage) {
+            AccountSlot slot = storage.get(state.getAccountId());
+            if (slot != null) {
+                write(slot, state.isBlocked(), state.getBalance());
+            } else {
+                storage.put(state.getAccountId(), new AccountSlot(state.isBlocked(), state.getBalance(), epoch));
+            }
+        }
         return state;
     }
 
+    @Override
+    public TransferRejection transferFunds(String senderId, String receiverId, BigDecimal amount) {
+        // Check and move funds in place, within the same monitor as transactions.
+        // Only the new balances are allocated, unless transfer is rejected.
+        TransactionRecording recording = TransactionRecording.begin();
+        synchronized (storage) {
+            recording.locked();
+            boolean completed = false;
+            try {
+                TransferRejection rejection = TransactionRecording.transfer(senderId, receiverId,
+                        moveFunds(senderId, receiverId, amount));
+                completed = true;
+                return rejection;
+            } finally {
+                recording.end(completed);
+            }
+        }
+    }
+
+    private TransferRejection moveFunds(String senderId, String receiverId, BigDecimal amount) {
+        AccountSlot sender = storage.get(senderId);
+        if (sender == null) return TransferRejection.accountNotFound(senderId);
+        AccountSlot receiver = storage.get(receiverId);
+        if (receiver == null) return TransferRejection.accountNotFound(receiverId);
+        if (sender.blocked) return TransferRejection.accountBlocked(senderId);
+        if (receiver.blocked) return TransferRejection.accountBlocked(receiverId);
+
+        BigDecimal newSenderBalance = sender.balance.subtract(amount);
+        if (newSenderBalance.signum() < 0) {
+            return TransferRejection.notEnoughFunds(amount, sender.balance);
+        }
+        if (sender == receiver) {
+            return null;
+        }
+        write(sender, sender.blocked, newSenderBalance);
+        write(receiver, receiver.blocked, receiver.balance.add(amount));
+        return null;
+    }
+
+    @Override
+    public TransferRejection transferFunds(MultiTransfer transfer) {
+        // Net changes are sorted by account ID, so accounts are always taken in the same order.
+        // All checks pass before any slot is changed, so the transfer is applied entirely or not at all.
+        SortedMap<String, BigDecimal> changes = transfer.netChanges();
+        TransactionRecording recording = TransactionRecording.begin();
+        synchronized (storage) {
+            recording.locked();
+            boolean completed = false;
+            try {
+                TransferRejection rejection = TransactionRecording.transfer(changes.keySet(), applyChanges(changes));
+                completed = true;
+                return rejection;
+            } finally {
+                recording.end(completed);
+            }
+        }
+    }
+
+    private TransferRejection applyChanges(SortedMap<String, BigDecimal> changes) {
+        String[] ids = changes.keySet().toArray(new String[0]);
+        AccountSlot[] slots = new AccountSlot[ids.length];
+        BigDecimal[] newBalances = new BigDecimal[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            slots[i] = storage.get(ids[i]);
+            if (slots[i] == null) return TransferRejection.accountNotFound(ids[i]);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (slots[i].blocked) return TransferRejection.accountBlocked(ids[i]);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            BigDecimal change = changes.get(ids[i]);
+            newBalances[i] = slots[i].balance.add(change);
+            if (change.signum() < 0 && newBalances[i].signum() < 0) {
+                return TransferRejection.notEnoughFunds(change.negate(), slots[i].balance);
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (changes.get(ids[i]).signum() != 0) {
+                write(slots[i], slots[i].blocked, newBalances[i]);
+            }
+        }
+        return null;
+    }
+
     @Override
     public String generateUniqueId() {
-        // Here we simply create a new UUID and retry if we already
-        // have such key in datastore to prevent any key duplication
-        String id;
-        do {
-            id = UUID.randomUUID().toString();
-        } while (storage.containsKey(id));
-        return id;
+        // ID generator guarantees uniqueness by itself, so neither collision check
+        // nor transaction lock is needed here
+        return idGenerator.generateId();
     }
 
     @Override
-    public AccountState performTransaction(Transaction<AccountState> transaction) throws TransferServiceException {
+    public <T> T performTransaction(Transaction<T> transaction) throws TransferServiceException {
         // Capture the monitor while executing transaction
+        TransactionRecording recording = TransactionRecording.begin();
         synchronized (storage) {
-            return transaction.apply(this);
+            recording.locked();
+            boolean completed = false;
+            try {
+                T result = transaction.apply(this);
+                completed = true;
+                return result;
+            } finally {
+                recording.end(completed);
+            }
         }
     }
 
     /**
-     * Convert datastore record to domain {@link AccountState} object.
-     *
-     * @param id     account ID
-     * @param record account params
-     * @return domain {@link AccountState} object for specified datastore record
+     * Change slot in place. Called within the monitor.
      */
-    private static AccountState stateFromRecord(String id, AccountStateRecord record) {
-        return AccountState.builder()
-                .accountId(id)
-                .blocked(record.isBlocked())
-                .balance(record.getBalance())
-                .build();
+    private void write(AccountSlot slot, boolean blocked, BigDecimal balance) {
+        slot.update(blocked, balance, epoch, snapshotEpoch);
     }
 
     /**
-     * Convert domain {@link AccountState} object to datastore record.
-     *
-     * @param state domain {@link AccountState} object
-     * @return datastore record for specified {@link AccountState} object
+     * Mutable account state. Written within the storage monitor only.
+     * <p>
+     * Readers without the monitor take a consistent copy by checking that the version did not change
+     * while they read, and retrying otherwise. The version is odd while the slot is being changed.
+     * <p>
+     * The first write after a snapshot keeps the previous state for the snapshot scan.
      */
-    private static AccountStateRecord recordFromState(AccountState state) {
-        return AccountStateRecord.builder()
-                .blocked(state.isBlocked())
-                .balance(state.getBalance())
-                .build();
+    private static final class AccountSlot {
+        private volatile int version;
+        private volatile boolean blocked;
+        private volatile BigDecimal balance;
+        private volatile long epoch;
+
+        private volatile long keptEpoch = NO_SNAPSHOT;
+        private volatile boolean keptBlocked;
+        private volatile BigDecimal keptBalance;
+
+        private AccountSlot(boolean blocked, BigDecimal balance, long epoch) {
+            this.blocked = blocked;
+            this.balance = balance;
+            this.epoch = epoch;
+        }
+
+        private void update(boolean blocked, BigDecimal balance, long epoch, long snapshotEpoch) {
+            version++;
+            if (snapshotEpoch != NO_SNAPSHOT && this.epoch <= snapshotEpoch && keptEpoch != snapshotEpoch) {
+                keptEpoch = snapshotEpoch;
+                keptBlocked = this.blocked;
+                keptBalance = this.balance;
+            }
+            this.blocked = blocked;
+            this.balance = balance;
+            this.epoch = epoch;
+            version++;
+        }
+
+        /**
+         * Convert slot state as of the snapshot to domain {@link AccountState} object.
+         *
+         * @param id       account ID
+         * @param snapshot snapshot epoch
+         * @return domain {@link AccountState} object, or null if account was created after the snapshot
+         */
+        private AccountState toSnapshotState(String id, long snapshot) {
+            while (true) {
+                int before = version;
+                long currentEpoch = epoch;
+                boolean currentBlocked = blocked;
+                BigDecimal currentBalance = balance;
+                long currentKeptEpoch = keptEpoch;
+                boolean currentKeptBlocked = keptBlocked;
+                BigDecimal currentKeptBalance = keptBalance;
+                if ((before & 1) == 0 && version == before) {
+                    if (currentEpoch <= snapshot) {
+                        return AccountState.builder()
+                                .accountId(id)
+                                .blocked(currentBlocked)
+                                .balance(currentBalance)
+                                .build();
+                    }
+                    if (currentKeptEpoch == snapshot) {
+                        return AccountState.builder()
+                                .accountId(id)
+                                .blocked(currentKeptBlocked)
+                                .balance(currentKeptBalance)
+                                .build();
+                    }
+                    return null;
+                }
+                Thread.yield();
+            }
+        }
+
+        /**
+         * Convert slot to domain {@link AccountState} object.
+         *
+         * @param id account ID
+         * @return domain {@link AccountState} object for this slot
+         */
+        private AccountState toState(String id) {
+            while (true) {
+                int before = version;
+                boolean currentBlocked = blocked;
+                BigDecimal currentBalance = balance;
+                if ((before & 1) == 0 && version == before) {
+                    return AccountState.builder()
+                            .accountId(id)
+                            .blocked(currentBlocked)
+                            .balance(currentBalance)
+                            .build();
+                }
+                Thread.yield();
+            }
+        }
     }
 }
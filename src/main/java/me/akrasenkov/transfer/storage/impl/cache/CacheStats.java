@@ -0,0 +1,25 @@
+package me.akrasenkov.transfer.storage.impl.cache;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Counters of {@link CachingAccountStateStorage} since its creation.
+ */
+@Data
+@Builder
+public class CacheStats {
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private int size;
+
+    /**
+     * @return ratio of lookups served from cache, or 1 if there were no lookups
+     */
+    public double hitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 1.0 : (double) hitCount / lookups;
+    }
+}
@@ -0,0 +1,392 @@
+package me.akrasenkov.transfer.storage.impl.cache;
+
+import com.google.common.base.Preconditions;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.storage.AccountStateRecord;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collector;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Bounded cache of account records in front of another storage, which keeps hot accounts on heap.
+ * <p>
+ * Eviction follows W-TinyLFU: new records enter a small LRU window, and records leaving the window
+ * are admitted to the main segmented LRU only if they were accessed more often than its victim,
+ * according to a {@link FrequencySketch}. A scan over many cold accounts passes through the window
+ * without flushing hot accounts out of the main space.
+ * <p>
+ * Transfers are made of reads and writes through the cache, so accounts it holds are not read from the backing
+ * storage. Writes go through to the backing storage and then update the cache, so cached records are never
+ * older than committed ones. Writes of a transaction update the cache once it completes, before its lock is
+ * released; if it fails, accounts it wrote are evicted, since the backing storage may keep or drop its writes.
+ * A record loaded on miss is cached only if no write of the same account happened while it was loaded,
+ * otherwise it could overwrite a newer one. All access to the backing storage must go through this cache.
+ */
+public class CachingAccountStateStorage implements AccountStateStorage, Closeable {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final AccountStateStorage storage;
+    private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<>();
+
+    /**
+     * Guards eviction policy: sketch, queues and node placement.
+     */
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue probation = new AccessQueue();
+    private final AccessQueue protectedQueue = new AccessQueue();
+    private final int windowMaximum;
+    private final int mainMaximum;
+    private final int protectedMaximum;
+
+    /**
+     * Tokens of loads in progress by account ID. A write of the account removes its token within policy lock,
+     * so a load finished after the write finds its token gone and does not cache what it has read.
+     */
+    private final ConcurrentHashMap<String, Object> loads = new ConcurrentHashMap<>();
+
+    /**
+     * Writes of the current thread's transaction by account ID, null outside of transaction.
+     */
+    private final ThreadLocal<Map<String, AccountStateRecord>> transactionWrites = new ThreadLocal<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    @Inject
+    public CachingAccountStateStorage(@Named(AppModule.BACKING_STORAGE) AccountStateStorage storage,
+                                      @Named(AppModule.CACHE_SIZE) int maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+        this.storage = storage;
+        this.sketch = new FrequencySketch(maximumSize);
+        this.windowMaximum = Math.max(1, maximumSize * WINDOW_PERCENT / 100);
+        this.mainMaximum = maximumSize - windowMaximum;
+        this.protectedMaximum = mainMaximum * PROTECTED_PERCENT / 100;
+    }
+
+    @Override
+    public Optional<AccountState> getAccountStateById(String accountId) {
+        Map<String, AccountStateRecord> writes = transactionWrites.get();
+        if (writes != null) {
+            // Within transaction, its own writes are read first
+            AccountStateRecord written = writes.get(accountId);
+            if (written != null) return Optional.of(stateFromRecord(accountId, written));
+        }
+        Node node = data.get(accountId);
+        if (node != null) {
+            hitCount.increment();
+            // Access is recorded only if policy is not busy, a lost access barely changes eviction order
+            if (policyLock.tryLock()) {
+                try {
+                    onAccess(node);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return Optional.of(stateFromRecord(accountId, node.record));
+        }
+
+        missCount.increment();
+        // Concurrent loads of one account replace each other's tokens, so only the last one caches its record
+        Object token = new Object();
+        loads.put(accountId, token);
+        Optional<AccountState> state;
+        try {
+            state = storage.getAccountStateById(accountId);
+        } catch (RuntimeException e) {
+            loads.remove(accountId, token);
+            throw e;
+        }
+        if (!state.isPresent()) {
+            loads.remove(accountId, token);
+            return state;
+        }
+        policyLock.lock();
+        try {
+            if (loads.remove(accountId, token) && !data.containsKey(accountId)) {
+                insert(accountId, AccountStateRecord.from(state.get()).build());
+            }
+        } finally {
+            policyLock.unlock();
+        }
+        return state;
+    }
+
+    @Override
+    public Map<String, AccountState> getAccountStatesByIds(Collection<String> accountIds) {
+        // Bulk lookups are served by the backing storage as one consistent snapshot.
+        // They are usually scans, so they neither use nor populate the cache.
+        return storage.getAccountStatesByIds(accountIds);
+    }
+
+    @Override
+    public <R> R collectAccounts(Collector<? super AccountState, ?, R> collector) {
+        // Scans are served by the backing storage snapshot, and must not flush hot accounts out of cache
+        return storage.collectAccounts(collector);
+    }
+
+    @Override
+    public AccountState saveAccountState(AccountState state) {
+        AccountState saved;
+        try {
+            saved = storage.saveAccountState(state);
+        } catch (RuntimeException e) {
+            // Backing storage state is unknown now, so let the next read load it
+            invalidate(state.getAccountId());
+            throw e;
+        }
+
+        AccountStateRecord record = AccountStateRecord.from(state).build();
+        Map<String, AccountStateRecord> writes = transactionWrites.get();
+        if (writes != null) {
+            writes.put(state.getAccountId(), record);
+        } else {
+            update(state.getAccountId(), record);
+        }
+        return saved;
+    }
+
+    @Override
+    public String generateUniqueId() {
+        return storage.generateUniqueId();
+    }
+
+    @Override
+    public <T> T performTransaction(Transaction<T> transaction) throws TransferServiceException {
+        // Transaction works with this cache, so its reads and writes go through it
+        if (transactionWrites.get() != null) {
+            // Nested transaction commits with the outer one
+            return storage.performTransaction(s -> transaction.apply(this));
+        }
+        Map<String, AccountStateRecord> writes = new LinkedHashMap<>();
+        transactionWrites.set(writes);
+        try {
+            return storage.performTransaction(s -> {
+                T result = transaction.apply(this);
+                // Cached before the lock is released, so the next transaction reads them from cache
+                writes.forEach(this::update);
+                return result;
+            });
+        } catch (RuntimeException | TransferServiceException e) {
+            for (String accountId : writes.keySet()) {
+                invalidate(accountId);
+            }
+            throw e;
+        } finally {
+            transactionWrites.remove();
+        }
+    }
+
+    /**
+     * Cache a written record. Cache is updated after the backing storage, so a record loaded concurrently is either
+     * skipped or overwritten here. Writes of the same account are serialized by transactions.
+     */
+    private void update(String accountId, AccountStateRecord record) {
+        policyLock.lock();
+        try {
+            loads.remove(accountId);
+            Node node = data.get(accountId);
+            if (node != null) {
+                node.record = record;
+                onAccess(node);
+            } else {
+                insert(accountId, record);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Evict an account whose state in the backing storage is unknown, so the next read loads it.
+     */
+    private void invalidate(String accountId) {
+        policyLock.lock();
+        try {
+            loads.remove(accountId);
+            evict(data.get(accountId), false);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * @return counters of cache since its creation
+     */
+    public CacheStats getStats() {
+        return CacheStats.builder()
+                .hitCount(hitCount.sum())
+                .missCount(missCount.sum())
+                .evictionCount(evictionCount.sum())
+                .size(data.size())
+                .build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    /**
+     * Add a new record to the window, moving the window victim to the main space. Called within policy lock.
+     */
+    private void insert(String accountId, AccountStateRecord record) {
+        Node node = new Node(accountId, record);
+        data.put(accountId, node);
+        sketch.increment(accountId);
+        window.addLast(node);
+        if (window.size > windowMaximum) {
+            Node candidate = window.removeFirst();
+            probation.addLast(candidate);
+            if (probation.size + protectedQueue.size > mainMaximum) {
+                evictFromMain(candidate);
+            }
+        }
+    }
+
+    /**
+     * Evict either the candidate or the main space victim, whichever is accessed less often.
+     * Called within policy lock.
+     */
+    private void evictFromMain(Node candidate) {
+        Node victim = probation.first();
+        if (victim == candidate) {
+            // Candidate is the only one on probation
+            victim = protectedQueue.first();
+        }
+        if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+            evict(candidate, true);
+        } else {
+            evict(victim, true);
+        }
+    }
+
+    /**
+     * Record an access and move the node accordingly. Called within policy lock.
+     */
+    private void onAccess(Node node) {
+        if (node.queue == null) {
+            // Evicted concurrently
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.queue == probation) {
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            if (protectedQueue.size > protectedMaximum) {
+                probation.addLast(protectedQueue.removeFirst());
+            }
+        } else {
+            node.queue.moveToEnd(node);
+        }
+    }
+
+    /**
+     * Remove the node from cache. Called within policy lock.
+     */
+    private void evict(Node node, boolean counted) {
+        if (node == null || node.queue == null) return;
+        node.queue.remove(node);
+        data.remove(node.key, node);
+        if (counted) {
+            evictionCount.increment();
+        }
+    }
+
+    /**
+     * Convert datastore record to domain {@link AccountState} object.
+     *
+     * @param id     account ID
+     * @param record account params
+     * @return domain {@link AccountState} object for specified datastore record
+     */
+    private static AccountState stateFromRecord(String id, AccountStateRecord record) {
+        return AccountState.builder()
+                .accountId(id)
+                .blocked(record.isBlocked())
+                .balance(record.getBalance())
+                .build();
+    }
+
+    /**
+     * Cached record, linked into one of access queues.
+     */
+    private static final class Node {
+        private final String key;
+        private volatile AccountStateRecord record;
+        private AccessQueue queue;
+        private Node prev;
+        private Node next;
+
+        private Node(String key, AccountStateRecord record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Doubly linked queue of nodes from least to most recently used. Not thread-safe.
+     */
+    private static final class AccessQueue {
+        private Node head;
+        private Node tail;
+        private int size;
+
+        private Node first() {
+            return head;
+        }
+
+        private void addLast(Node node) {
+            node.queue = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) head = node;
+            else tail.next = node;
+            tail = node;
+            size++;
+        }
+
+        private Node removeFirst() {
+            Node node = head;
+            remove(node);
+            return node;
+        }
+
+        private void remove(Node node) {
+            if (node.prev == null) head = node.next;
+            else node.prev.next = node.next;
+            if (node.next == null) tail = node.prev;
+            else node.next.prev = node.prev;
+            node.queue = null;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        private void moveToEnd(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+}
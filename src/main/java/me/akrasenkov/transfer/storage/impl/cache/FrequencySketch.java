@@ -0,0 +1,105 @@
+package me.akrasenkov.transfer.storage.impl.cache;
+
+import com.google.common.math.IntMath;
+
+/**
+ * Count-min sketch estimating how often keys were accessed recently, with 4-bit counters.
+ * <p>
+ * Each key maps to one counter in each of {@value #DEPTH} rows, and its frequency is the minimum of them.
+ * Once the number of increments reaches the sample size, all counters are halved,
+ * so the sketch forgets old popularity and follows changes of the working set.
+ * Not thread-safe.
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int SAMPLE_SIZE_FACTOR = 10;
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    /**
+     * Mask clearing the highest bit of every counter after a shift right, i.e. halving all counters at once.
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Every long holds 16 counters of 4 bits.
+     */
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param maximumSize maximum number of cached keys
+     */
+    FrequencySketch(int maximumSize) {
+        int tableSize = IntMath.ceilingPowerOfTwo(Math.min(Math.max(maximumSize, 16), MAX_TABLE_SIZE));
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = (int) Math.min((long) maximumSize * SAMPLE_SIZE_FACTOR, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Estimate recent access frequency of a key.
+     *
+     * @param key key
+     * @return frequency in range [0, 15]
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            int h = rehash(hash, i);
+            frequency = Math.min(frequency, (int) ((table[h >>> 4 & tableMask] >>> offset(h)) & MAX_COUNT));
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access to a key.
+     *
+     * @param key key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int h = rehash(hash, i);
+            int index = h >>> 4 & tableMask;
+            int offset = offset(h);
+            if (((table[index] >>> offset) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    /**
+     * Bit offset of a counter within its long.
+     */
+    private static int offset(int hash) {
+        return (hash & 15) << 2;
+    }
+
+    private static int rehash(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return h ^ (h >>> 16);
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x45D9F3B;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,172 @@
+package me.akrasenkov.transfer.storage.impl.feed;
+
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.feed.ChangeFeed;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collector;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Storage publishing every committed account state to a {@link ChangeFeed}.
+ * <p>
+ * Writes of a transaction are collected and published when the outermost transaction completes,
+ * while it still holds the transaction lock of the underlying storage, so the feed follows commit order.
+ * Writes of a failed transaction are not published but skipped, so consumers get a gap and re-read those accounts,
+ * whether the underlying storage kept or dropped them.
+ * <p>
+ * Without feed subscribers, changes are only counted by {@link ChangeFeed#skip}, and transfers go straight
+ * to the underlying storage, so they do not read back and keep account states.
+ */
+public class ChangeFeedAccountStateStorage implements AccountStateStorage, Closeable {
+
+    private final AccountStateStorage storage;
+    private final ChangeFeed changeFeed;
+
+    /**
+     * Writes of the current thread's transaction, null outside of transaction.
+     */
+    private final ThreadLocal<List<AccountState>> transactionWrites = new ThreadLocal<>();
+
+    @Inject
+    public ChangeFeedAccountStateStorage(@Named(AppModule.CACHED_STORAGE) AccountStateStorage storage,
+                                         ChangeFeed changeFeed) {
+        this.storage = storage;
+        this.changeFeed = changeFeed;
+    }
+
+    @Override
+    public Optional<AccountState> getAccountStateById(String accountId) {
+        return storage.getAccountStateById(accountId);
+    }
+
+    @Override
+    public Map<String, AccountState> getAccountStatesByIds(Collection<String> accountIds) {
+        return storage.getAccountStatesByIds(accountIds);
+    }
+
+    @Override
+    public <R> R collectAccounts(Collector<? super AccountState, ?, R> collector) {
+        return storage.collectAccounts(collector);
+    }
+
+    @Override
+    public AccountState saveAccountState(AccountState state) {
+        AccountState saved = storage.saveAccountState(state);
+        List<AccountState> writes = transactionWrites.get();
+        if (writes != null) {
+            writes.add(state);
+        } else if (changeFeed.hasSubscribers()) {
+            changeFeed.publish(Collections.singletonList(state));
+        } else {
+            changeFeed.skip(1);
+        }
+        return saved;
+    }
+
+    @Override
+    public TransferRejection transferFunds(String senderId, String receiverId, BigDecimal amount)
+            throws TransferServiceException {
+        if (transactionWrites.get() == null && !changeFeed.hasSubscribers()) {
+            TransferRejection rejection = storage.transferFunds(senderId, receiverId, amount);
+            if (rejection == null && !senderId.equals(receiverId)) {
+                changeFeed.skip(2);
+            }
+            return rejection;
+        }
+        // Underlying storage moves funds by itself, in place if it can. Changed states are read
+        // within the same transaction to be published, so they are exactly the committed ones.
+        return performTransaction(s -> {
+            TransferRejection rejection = storage.transferFunds(senderId, receiverId, amount);
+            if (rejection == null && !senderId.equals(receiverId)) {
+                List<AccountState> writes = transactionWrites.get();
+                storage.getAccountStateById(senderId).ifPresent(writes::add);
+                storage.getAccountStateById(receiverId).ifPresent(writes::add);
+            }
+            return rejection;
+        });
+    }
+
+    @Override
+    public TransferRejection transferFunds(MultiTransfer transfer) throws TransferServiceException {
+        if (transactionWrites.get() == null && !changeFeed.hasSubscribers()) {
+            TransferRejection rejection = storage.transferFunds(transfer);
+            if (rejection == null) {
+                int changed = 0;
+                for (BigDecimal change : transfer.netChanges().values()) {
+                    if (change.signum() != 0) changed++;
+                }
+                changeFeed.skip(changed);
+            }
+            return rejection;
+        }
+        // Only accounts with non-zero net change are written, so only they are published
+        return performTransaction(s -> {
+            TransferRejection rejection = storage.transferFunds(transfer);
+            if (rejection == null) {
+                List<AccountState> writes = transactionWrites.get();
+                for (Map.Entry<String, BigDecimal> change : transfer.netChanges().entrySet()) {
+                    if (change.getValue().signum() != 0) {
+                        storage.getAccountStateById(change.getKey()).ifPresent(writes::add);
+                    }
+                }
+            }
+            return rejection;
+        });
+    }
+
+    @Override
+    public String generateUniqueId() {
+        return storage.generateUniqueId();
+    }
+
+    @Override
+    public <T> T performTransaction(Transaction<T> transaction) throws TransferServiceException {
+        return storage.performTransaction(s -> {
+            List<AccountState> outerWrites = transactionWrites.get();
+            List<AccountState> writes = new ArrayList<>();
+            transactionWrites.set(writes);
+            boolean completed = false;
+            try {
+                // Transaction works with this storage, so its writes are collected
+                T result = transaction.apply(this);
+                completed = true;
+                return result;
+            } finally {
+                if (outerWrites != null) {
+                    // Nested transaction commits with the outer one
+                    outerWrites.addAll(writes);
+                    transactionWrites.set(outerWrites);
+                } else {
+                    transactionWrites.remove();
+                    if (completed && changeFeed.hasSubscribers()) {
+                        changeFeed.publish(writes);
+                    } else {
+                        changeFeed.skip(writes.size());
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+}
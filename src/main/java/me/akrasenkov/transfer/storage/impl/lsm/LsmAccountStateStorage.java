@@ -0,0 +1,616 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.id.IdGenerator;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.storage.AccountStateRecord;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Account storage based on an embedded log-structured merge tree, for datasets larger than heap.
+ * <p>
+ * Writes of a transaction are buffered until it completes, then appended to the {@link WriteAheadLog}
+ * of the in-memory {@link MemTable} as one sequential write and put to the memtable. Writes of a failed
+ * transaction are dropped, so no reader ever sees it half-applied. A full memtable is frozen and flushed
+ * in background to an immutable sorted {@link Segment}. Background compaction is size-tiered: it merges adjacent segments
+ * of similar size only, so every record is rewritten once per tier rather than on every compaction.
+ * <p>
+ * Reads are lock-free: they look into the memtable, frozen memtables and segments from newest to oldest.
+ * Segment bloom filters and sparse indexes are kept on heap, so a point lookup needs at most one disk read
+ * in the common case. Bulk lookups probe segments with sorted keys, reading each segment in one forward pass.
+ * Full scans read a snapshot of the memtable and pin segments, so they merge a fixed set of tables
+ * without rotating the memtable. Transactions are serialized with a monitor, the same way as in-memory storage does.
+ */
+public class LsmAccountStateStorage implements AccountStateStorage, Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".sst";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+
+    /**
+     * Number of adjacent segments of one size tier which are merged into a segment of the next tier.
+     * Tier of a segment grows by one with every this many times more records than a full memtable has.
+     */
+    private static final int MERGE_WIDTH = 4;
+
+    private final Path directory;
+    private final int memTableSize;
+    private final boolean sync;
+    private final IdGenerator idGenerator;
+
+    /**
+     * Single background thread for flushes and compactions, so they never run concurrently.
+     */
+    private final ExecutorService background = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("lsm-background-%d").setDaemon(true).build());
+
+    /**
+     * Transaction monitor. Guards the fields below and publication of new tables.
+     */
+    private final Object lock = new Object();
+    /**
+     * Writes of the current transaction, seen by reads of the thread making it only.
+     */
+    private final Map<String, AccountStateRecord> pendingWrites = new LinkedHashMap<>();
+    private int transactionDepth;
+    private long nextSequence;
+    private WriteAheadLog log;
+    private volatile IOException backgroundFailure;
+
+    /**
+     * Number of the next segment file. Every written segment gets a file of its own, so a segment replaced
+     * by compaction or flush never has its file overwritten while readers of outdated tables hold it.
+     * Used by the background thread only, once storage is open.
+     */
+    private long nextSegmentNumber;
+
+    /**
+     * Current set of tables. Replaced as a whole, so readers always see a consistent set.
+     */
+    private volatile Tables tables;
+
+    @Inject
+    public LsmAccountStateStorage(IdGenerator idGenerator,
+                                  @Named(AppModule.LSM_DIRECTORY) String directory,
+                                  @Named(AppModule.LSM_MEMTABLE_SIZE) int memTableSize,
+                                  @Named(AppModule.LSM_SYNC) boolean sync) {
+        this.idGenerator = idGenerator;
+        this.directory = Paths.get(directory);
+        this.memTableSize = memTableSize;
+        this.sync = sync;
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<AccountState> getAccountStateById(String accountId) {
+        if (Thread.holdsLock(lock)) {
+            // Within transaction, its own writes are read first
+            AccountStateRecord pending = pendingWrites.get(accountId);
+            if (pending != null) return Optional.of(stateFromRecord(accountId, pending));
+        }
+        while (true) {
+            Tables current = tables;
+            try {
+                return ofNullable(current.get(accountId))
+                        .map(record -> stateFromRecord(accountId, record));
+            } catch (IOException e) {
+                // A segment of outdated tables may be already closed by compaction, retry with new tables
+                if (current == tables) throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, AccountState> getAccountStatesByIds(Collection<String> accountIds) {
+        while (true) {
+            // Memtable is the only mutable table, so it is read within lock, together with taking tables.
+            // Frozen memtables and segments of taken tables do not change, so they are read without lock.
+            // Writes are pending only within a transaction of the thread holding the lock, so they are ours.
+            Map<String, AccountStateRecord> found = new HashMap<>();
+            Tables current;
+            synchronized (lock) {
+                current = tables;
+                for (String accountId : accountIds) {
+                    AccountStateRecord record = pendingWrites.get(accountId);
+                    if (record == null) record = current.memTable.get(accountId);
+                    if (record != null) found.put(accountId, record);
+                }
+            }
+            List<String> remaining = accountIds.stream()
+                    .filter(accountId -> !found.containsKey(accountId))
+                    .sorted()
+                    .distinct()
+                    .collect(Collectors.toList());
+            try {
+                current.getAll(remaining, found);
+            } catch (IOException e) {
+                // A segment of outdated tables may be already closed by compaction, retry with new snapshot
+                if (current == tables) throw new UncheckedIOException(e);
+                continue;
+            }
+            Map<String, AccountState> states = new LinkedHashMap<>();
+            for (String accountId : accountIds) {
+                AccountStateRecord record = found.get(accountId);
+                if (record != null) states.put(accountId, stateFromRecord(accountId, record));
+            }
+            return states;
+        }
+    }
+
+    @Override
+    public <R> R collectAccounts(Collector<? super AccountState, ?, R> collector) {
+        // Memtable is read as of its snapshot, other tables taken are immutable, and transactions go on.
+        // Segments are pinned, so compaction does not close them during the scan.
+        Tables snapshot;
+        MemTable.Snapshot memTableSnapshot;
+        List<Segment> pinned = new ArrayList<>();
+        synchronized (lock) {
+            snapshot = tables;
+            memTableSnapshot = snapshot.memTable.snapshot();
+            for (Segment segment : snapshot.segments) {
+                if (segment.pin()) pinned.add(segment);
+            }
+        }
+        try {
+            if (pinned.size() < snapshot.segments.size()) {
+                throw new IllegalStateException("Storage is closed");
+            }
+            List<RecordCursor> cursors = new ArrayList<>();
+            cursors.add(memTableSnapshot.cursor());
+            for (MemTable table : snapshot.frozen) {
+                cursors.add(table.cursor());
+            }
+            for (Segment segment : snapshot.segments) {
+                cursors.add(segment.scanBlocks());
+            }
+            // Merge is sequential, while the reduction runs in parallel on batches taken from it
+            Iterator<Map.Entry<String, AccountStateRecord>> records = merge(cursors);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(records,
+                    Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), true)
+                    .map(record -> stateFromRecord(record.getKey(), record.getValue()))
+                    .collect(collector);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            memTableSnapshot.release();
+            for (Segment segment : pinned) {
+                try {
+                    segment.unpin();
+                } catch (IOException e) {
+                    // Segment was already replaced, nothing reads it anymore
+                }
+            }
+        }
+    }
+
+    @Override
+    public AccountState saveAccountState(AccountState state) {
+        AccountStateRecord record = AccountStateRecord.from(state).build();
+        RecordCodec.checkEncodable(state.getAccountId(), record);
+        synchronized (lock) {
+            pendingWrites.put(state.getAccountId(), record);
+            if (transactionDepth == 0) {
+                commit();
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public String generateUniqueId() {
+        return idGenerator.generateId();
+    }
+
+    @Override
+    public <T> T performTransaction(Transaction<T> transaction) throws TransferServiceException {
+        synchronized (lock) {
+            transactionDepth++;
+            boolean completed = false;
+            try {
+                T result = transaction.apply(this);
+                completed = true;
+                return result;
+            } finally {
+                if (--transactionDepth == 0) {
+                    if (completed) {
+                        commit();
+                    } else {
+                        pendingWrites.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop background work and close files. Memtable is not flushed: its log is replayed on next start.
+     *
+     * @throws IOException if files cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            log.close();
+            for (Segment segment : tables.segments) {
+                segment.close();
+            }
+        }
+    }
+
+    /**
+     * Load segments and replay logs left by previous run.
+     */
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> segmentPaths = new TreeMap<>(Comparator.reverseOrder());
+        Map<Long, Long> segmentNumbers = new HashMap<>();
+        TreeMap<Long, Path> logPaths = new TreeMap<>(Comparator.reverseOrder());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(Segment.TEMP_SUFFIX)) {
+                    // Unfinished segment of interrupted flush or compaction
+                    Files.delete(file);
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    String[] parts = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())
+                            .split("-");
+                    long sequence = Long.parseLong(parts[0]);
+                    long number = Long.parseLong(parts[1]);
+                    nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+                    // Segment of the same sequence with a lower number was replaced by flush or compaction
+                    // before the previous run stopped, so only the last written one is kept
+                    Long other = segmentNumbers.get(sequence);
+                    if (other != null && other > number) {
+                        Files.delete(file);
+                        continue;
+                    }
+                    if (other != null) {
+                        Files.delete(segmentPaths.get(sequence));
+                    }
+                    segmentNumbers.put(sequence, number);
+                    segmentPaths.put(sequence, file);
+                } else if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+                    logPaths.put(parseSequence(name, LOG_PREFIX, LOG_SUFFIX), file);
+                }
+            }
+        }
+
+        ImmutableList.Builder<Segment> segments = ImmutableList.builder();
+        for (Map.Entry<Long, Path> segmentPath : segmentPaths.entrySet()) {
+            segments.add(Segment.open(segmentPath.getValue(), segmentPath.getKey()));
+        }
+        // Every log left is a memtable which was not flushed yet
+        ImmutableList.Builder<MemTable> frozen = ImmutableList.builder();
+        for (Map.Entry<Long, Path> logPath : logPaths.entrySet()) {
+            MemTable memTable = new MemTable(logPath.getKey());
+            WriteAheadLog.replay(logPath.getValue(), memTable::put);
+            frozen.add(memTable);
+        }
+
+        long lastSequence = Math.max(
+                segmentPaths.isEmpty() ? 0 : segmentPaths.firstKey(),
+                logPaths.isEmpty() ? 0 : logPaths.firstKey());
+        nextSequence = lastSequence + 1;
+        MemTable memTable = new MemTable(nextSequence++);
+        log = new WriteAheadLog(logPath(memTable.getSequence()), sync);
+        tables = new Tables(memTable, frozen.build(), segments.build());
+
+        for (MemTable recovered : tables.frozen.reverse()) {
+            background.execute(() -> flush(recovered));
+        }
+    }
+
+    /**
+     * Append pending writes to the log, then put them to memtable, and rotate memtable if it is full.
+     * Pending writes are dropped if they cannot be logged. Called within lock.
+     */
+    private void commit() {
+        try {
+            if (backgroundFailure != null) {
+                throw new IllegalStateException("Background flush failed", backgroundFailure);
+            }
+            if (pendingWrites.isEmpty()) return;
+            log.append(pendingWrites.entrySet());
+            for (Map.Entry<String, AccountStateRecord> write : pendingWrites.entrySet()) {
+                tables.memTable.put(write.getKey(), write.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            pendingWrites.clear();
+        }
+        if (tables.memTable.size() >= memTableSize) {
+            rotate();
+        }
+    }
+
+    /**
+     * Freeze current memtable, start a new one with a new log and schedule flush. Called within lock.
+     */
+    private void rotate() {
+        MemTable full = tables.memTable;
+        MemTable memTable = new MemTable(nextSequence++);
+        try {
+            log.close();
+            log = new WriteAheadLog(logPath(memTable.getSequence()), sync);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        tables = new Tables(memTable,
+                ImmutableList.<MemTable>builder().add(full).addAll(tables.frozen).build(),
+                tables.segments);
+        background.execute(() -> flush(full));
+    }
+
+    /**
+     * Write frozen memtable to a segment and drop its log. Runs in background.
+     */
+    private void flush(MemTable memTable) {
+        try {
+            Segment segment = Segment.write(newSegmentPath(memTable.getSequence()), memTable.getSequence(),
+                    memTable.iterator(), memTable.size());
+            List<Segment> replaced;
+            synchronized (lock) {
+                // Segment with the same sequence exists if previous run stopped between flush and log removal
+                replaced = segmentsWithSequence(memTable.getSequence());
+                ImmutableList.Builder<Segment> segments = ImmutableList.<Segment>builder().add(segment);
+                tables.segments.stream().filter(s -> !replaced.contains(s)).forEach(segments::add);
+                tables = new Tables(tables.memTable,
+                        tables.frozen.stream().filter(m -> m != memTable).collect(ImmutableList.toImmutableList()),
+                        segments.build());
+            }
+            for (Segment old : replaced) {
+                old.close();
+                Files.delete(old.getPath());
+            }
+            Files.deleteIfExists(logPath(memTable.getSequence()));
+            for (List<Segment> inputs = pickCompaction(); inputs != null; inputs = pickCompaction()) {
+                compact(inputs);
+            }
+        } catch (IOException e) {
+            // Memtable stays frozen and keeps serving reads, its log is replayed on next start
+            backgroundFailure = e;
+        }
+    }
+
+    /**
+     * Find the newest run of at least {@link #MERGE_WIDTH} adjacent segments of one size tier.
+     * Only adjacent segments are merged, so the merged one keeps its place in the order from newest to oldest.
+     *
+     * @return segments to merge, from newest to oldest, or null if compaction is not needed
+     */
+    private List<Segment> pickCompaction() {
+        List<Segment> segments = tables.segments;
+        int start = 0;
+        while (start < segments.size()) {
+            int tier = tier(segments.get(start));
+            int end = start + 1;
+            while (end < segments.size() && tier(segments.get(end)) == tier) {
+                end++;
+            }
+            if (end - start >= MERGE_WIDTH) {
+                return segments.subList(start, end);
+            }
+            start = end;
+        }
+        return null;
+    }
+
+    private int tier(Segment segment) {
+        int tier = 0;
+        for (long capacity = (long) memTableSize * MERGE_WIDTH; segment.getRecordCount() >= capacity;
+             capacity *= MERGE_WIDTH) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Merge adjacent segments into one with sequential reads and writes. Runs in background.
+     * Merged segment takes the place of the newest merged one, in a file of its own.
+     *
+     * @param inputs adjacent segments, from newest to oldest
+     */
+    private void compact(List<Segment> inputs) throws IOException {
+        Segment newest = inputs.get(0);
+        int expectedCount = inputs.stream().mapToInt(Segment::getRecordCount).sum();
+        List<Segment.Scanner> scanners = new ArrayList<>();
+        Segment merged;
+        try {
+            for (Segment input : inputs) {
+                scanners.add(input.scan());
+            }
+            merged = Segment.write(newSegmentPath(newest.getSequence()), newest.getSequence(), merge(scanners),
+                    expectedCount);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (Segment.Scanner scanner : scanners) {
+                scanner.close();
+            }
+        }
+        synchronized (lock) {
+            List<Segment> segments = new ArrayList<>();
+            tables.segments.stream().filter(s -> !inputs.contains(s)).forEach(segments::add);
+            segments.add(merged);
+            segments.sort(Comparator.comparingLong(Segment::getSequence).reversed());
+            tables = new Tables(tables.memTable, tables.frozen, ImmutableList.copyOf(segments));
+        }
+        // Pinned scans keep reading channels of merged segments after their files are deleted
+        for (Segment input : inputs) {
+            input.close();
+            Files.delete(input.getPath());
+        }
+    }
+
+    /**
+     * Merge sorted table cursors, newest record wins for duplicate keys.
+     *
+     * @param cursors cursors of tables with distinct sequence numbers
+     * @return merged records in key order
+     */
+    private static Iterator<Map.Entry<String, AccountStateRecord>> merge(List<? extends RecordCursor> cursors)
+            throws IOException {
+        Comparator<RecordCursor> order = Comparator.comparing(RecordCursor::getKey)
+                .thenComparing(RecordCursor::getSequence, Comparator.reverseOrder());
+        PriorityQueue<RecordCursor> queue = new PriorityQueue<>(order);
+        for (RecordCursor cursor : cursors) {
+            if (cursor.next()) queue.add(cursor);
+        }
+        return new AbstractIterator<Map.Entry<String, AccountStateRecord>>() {
+            @Override
+            protected Map.Entry<String, AccountStateRecord> computeNext() {
+                RecordCursor newest = queue.poll();
+                if (newest == null) return endOfData();
+                Map.Entry<String, AccountStateRecord> entry =
+                        new AbstractMap.SimpleImmutableEntry<>(newest.getKey(), newest.getRecord());
+                try {
+                    // Skip older versions of the same record
+                    while (!queue.isEmpty() && queue.peek().getKey().equals(entry.getKey())) {
+                        RecordCursor older = queue.poll();
+                        if (older.next()) queue.add(older);
+                    }
+                    if (newest.next()) queue.add(newest);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return entry;
+            }
+        };
+    }
+
+    private List<Segment> segmentsWithSequence(long sequence) {
+        List<Segment> segments = new ArrayList<>();
+        for (Segment segment : tables.segments) {
+            if (segment.getSequence() == sequence) segments.add(segment);
+        }
+        return segments;
+    }
+
+    private Path newSegmentPath(long sequence) {
+        return directory.resolve(String.format("%s%019d-%019d%s",
+                SEGMENT_PREFIX, sequence, nextSegmentNumber++, SEGMENT_SUFFIX));
+    }
+
+    private Path logPath(long sequence) {
+        return directory.resolve(String.format("%s%019d%s", LOG_PREFIX, sequence, LOG_SUFFIX));
+    }
+
+    private static long parseSequence(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * Convert datastore record to domain {@link AccountState} object.
+     *
+     * @param id     account ID
+     * @param record account params
+     * @return domain {@link AccountState} object for specified datastore record
+     */
+    private static AccountState stateFromRecord(String id, AccountStateRecord record) {
+        return AccountState.builder()
+                .accountId(id)
+                .blocked(record.isBlocked())
+                .balance(record.getBalance())
+                .build();
+    }
+
+    /**
+     * Immutable set of tables, ordered from newest to oldest.
+     */
+    private static final class Tables {
+        private final MemTable memTable;
+        private final ImmutableList<MemTable> frozen;
+        private final ImmutableList<Segment> segments;
+
+        private Tables(MemTable memTable, ImmutableList<MemTable> frozen, ImmutableList<Segment> segments) {
+            this.memTable = memTable;
+            this.frozen = frozen;
+            this.segments = segments;
+        }
+
+        private AccountStateRecord get(String accountId) throws IOException {
+            AccountStateRecord record = memTable.get(accountId);
+            if (record != null) return record;
+            for (MemTable table : frozen) {
+                record = table.get(accountId);
+                if (record != null) return record;
+            }
+            for (Segment segment : segments) {
+                record = segment.get(accountId);
+                if (record != null) return record;
+            }
+            return null;
+        }
+
+        /**
+         * Find records in frozen memtables and segments, from newest to oldest.
+         *
+         * @param sortedIds account IDs in ascending order
+         * @param found     map to put found records to
+         */
+        private void getAll(List<String> sortedIds, Map<String, AccountStateRecord> found) throws IOException {
+            List<String> remaining = sortedIds;
+            for (MemTable table : frozen) {
+                List<String> missing = new ArrayList<>();
+                for (String accountId : remaining) {
+                    AccountStateRecord record = table.get(accountId);
+                    if (record != null) found.put(accountId, record);
+                    else missing.add(accountId);
+                }
+                remaining = missing;
+            }
+            for (Segment segment : segments) {
+                if (remaining.isEmpty()) return;
+                remaining = segment.getAll(remaining, found);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import me.akrasenkov.transfer.model.storage.AccountStateRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted in-memory table of the most recent writes.
+ * Written by one thread at a time (within storage lock), read concurrently.
+ * <p>
+ * Scans read the table as of a {@link Snapshot}: while a snapshot is open, writes save the records
+ * they replace into it, so the table is not copied and keeps taking writes during the scan.
+ */
+final class MemTable {
+
+    private static final Snapshot[] NO_SNAPSHOTS = new Snapshot[0];
+
+    /**
+     * Marks records absent when snapshot was taken.
+     */
+    private static final AccountStateRecord ABSENT = AccountStateRecord.builder().build();
+
+    private final long sequence;
+    private final ConcurrentSkipListMap<String, AccountStateRecord> records = new ConcurrentSkipListMap<>();
+    private volatile int size;
+    private volatile Snapshot[] snapshots = NO_SNAPSHOTS;
+
+    MemTable(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return sequence number of this table, shared with its write-ahead log and segment
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    AccountStateRecord get(String accountId) {
+        return records.get(accountId);
+    }
+
+    void put(String accountId, AccountStateRecord record) {
+        Snapshot[] open = snapshots;
+        if (open.length > 0) {
+            // Replaced record is saved before the new one is visible, so scans never miss it
+            AccountStateRecord replaced = records.get(accountId);
+            for (Snapshot snapshot : open) {
+                snapshot.replaced.putIfAbsent(accountId, replaced == null ? ABSENT : replaced);
+            }
+        }
+        if (records.put(accountId, record) == null) {
+            // Counted here, because size() of a skip list is a full traversal
+            size++;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Iterator<Map.Entry<String, AccountStateRecord>> iterator() {
+        return records.entrySet().iterator();
+    }
+
+    RecordCursor cursor() {
+        return new Cursor(iterator(), null);
+    }
+
+    /**
+     * Take a snapshot of the table. Called within storage lock, so no write is in progress.
+     *
+     * @return snapshot, which must be released after the scan
+     */
+    synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        Snapshot[] open = Arrays.copyOf(snapshots, snapshots.length + 1);
+        open[open.length - 1] = snapshot;
+        snapshots = open;
+        return snapshot;
+    }
+
+    /**
+     * Records of the table as of the moment it was taken.
+     */
+    final class Snapshot {
+
+        private final Map<String, AccountStateRecord> replaced = new ConcurrentHashMap<>();
+
+        RecordCursor cursor() {
+            return new Cursor(iterator(), replaced);
+        }
+
+        /**
+         * Stop saving replaced records for this snapshot.
+         */
+        void release() {
+            synchronized (MemTable.this) {
+                List<Snapshot> open = new ArrayList<>(Arrays.asList(snapshots));
+                open.remove(this);
+                snapshots = open.isEmpty() ? NO_SNAPSHOTS : open.toArray(NO_SNAPSHOTS);
+            }
+        }
+    }
+
+    private final class Cursor implements RecordCursor {
+
+        private final Iterator<Map.Entry<String, AccountStateRecord>> iterator;
+        private final Map<String, AccountStateRecord> replaced;
+        private String key;
+        private AccountStateRecord record;
+
+        /**
+         * @param replaced records replaced since snapshot was taken, or null to read the latest records
+         */
+        private Cursor(Iterator<Map.Entry<String, AccountStateRecord>> iterator,
+                       Map<String, AccountStateRecord> replaced) {
+            this.iterator = iterator;
+            this.replaced = replaced;
+        }
+
+        @Override
+        public boolean next() {
+            while (iterator.hasNext()) {
+                Map.Entry<String, AccountStateRecord> entry = iterator.next();
+                key = entry.getKey();
+                record = entry.getValue();
+                if (replaced != null) {
+                    AccountStateRecord previous = replaced.get(key);
+                    if (previous == ABSENT) continue;
+                    if (previous != null) record = previous;
+                }
+                return true;
+            }
+            key = null;
+            record = null;
+            return false;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public AccountStateRecord getRecord() {
+            return record;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
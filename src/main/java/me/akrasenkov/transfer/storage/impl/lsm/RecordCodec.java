@@ -0,0 +1,93 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import me.akrasenkov.transfer.model.storage.AccountStateRecord;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Binary encoding of account records, shared by write-ahead logs and segments.
+ * <pre>
+ * [UTF accountId][boolean blocked][boolean hasBalance]([int scale][short length][unscaled value bytes])
+ * </pre>
+ */
+final class RecordCodec {
+
+    /**
+     * Maximum length of encoded account ID, and of unscaled balance value, in bytes.
+     */
+    static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Check that a record can be encoded, before it is put to any table.
+     * Encoding fails for longer fields, after the record would already be visible to reads
+     * and scheduled for write to the log and to a segment.
+     *
+     * @throws IllegalArgumentException if account ID or balance exceeds {@link #MAX_FIELD_LENGTH} bytes
+     */
+    static void checkEncodable(String accountId, AccountStateRecord record) {
+        if (utfLength(accountId) > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("account_id");
+        }
+        BigDecimal balance = record.getBalance();
+        // Length of BigInteger.toByteArray(), without making the array
+        if (balance != null && balance.unscaledValue().bitLength() / 8 + 1 > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("balance");
+        }
+    }
+
+    static void write(DataOutput out, String accountId, AccountStateRecord record) throws IOException {
+        out.writeUTF(accountId);
+        out.writeBoolean(record.isBlocked());
+        BigDecimal balance = record.getBalance();
+        out.writeBoolean(balance != null);
+        if (balance != null) {
+            byte[] unscaled = balance.unscaledValue().toByteArray();
+            out.writeInt(balance.scale());
+            out.writeShort(unscaled.length);
+            out.write(unscaled);
+        }
+    }
+
+    /**
+     * Length of string in modified UTF-8, as written by {@link DataOutput#writeUTF}.
+     */
+    private static int utfLength(String value) {
+        // Every char takes at most 3 bytes, so short strings need no counting
+        if (value.length() <= MAX_FIELD_LENGTH / 3) return value.length();
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+
+    static String readKey(DataInput in) throws IOException {
+        return in.readUTF();
+    }
+
+    /**
+     * Read a record following its key.
+     */
+    static AccountStateRecord readRecord(DataInput in) throws IOException {
+        boolean blocked = in.readBoolean();
+        BigDecimal balance = null;
+        if (in.readBoolean()) {
+            int scale = in.readInt();
+            byte[] unscaled = new byte[in.readUnsignedShort()];
+            in.readFully(unscaled);
+            balance = new BigDecimal(new BigInteger(unscaled), scale);
+        }
+        return AccountStateRecord.builder()
+                .blocked(blocked)
+                .balance(balance)
+                .build();
+    }
+}
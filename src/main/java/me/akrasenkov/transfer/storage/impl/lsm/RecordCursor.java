@@ -0,0 +1,28 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import me.akrasenkov.transfer.model.storage.AccountStateRecord;
+
+import java.io.IOException;
+
+/**
+ * Forward cursor over records of one table in key order.
+ */
+interface RecordCursor {
+
+    /**
+     * Advance to the next record.
+     *
+     * @return false if there are no more records
+     * @throws IOException if table cannot be read
+     */
+    boolean next() throws IOException;
+
+    String getKey();
+
+    AccountStateRecord getRecord();
+
+    /**
+     * @return sequence number of the table, greater for newer tables
+     */
+    long getSequence();
+}
@@ -0,0 +1,394 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import me.akrasenkov.transfer.model.storage.AccountStateRecord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Immutable on-disk table of records sorted by account ID.
+ * <pre>
+ * [records][index: int count, (UTF key, long offset) * count][bloom filter][footer]
+ * footer: [long indexOffset][long bloomOffset][int recordCount][int magic]
+ * </pre>
+ * Sparse index holds the key and offset of every {@value #INDEX_INTERVAL}th record, so index and
+ * bloom filter are kept on heap, while a point lookup reads a single block between two index entries.
+ */
+final class Segment implements Closeable {
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int INDEX_INTERVAL = 64;
+    private static final int FOOTER_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+    private static final int MAGIC = 0x4C534D31;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    private final Path path;
+    private final long sequence;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final int recordCount;
+    private final BloomFilter<CharSequence> bloomFilter;
+
+    private volatile FileChannel channel;
+
+    /**
+     * Number of scans keeping the channel open after close, and whether segment was closed. Guarded by this.
+     */
+    private int pins;
+    private boolean closed;
+
+    private Segment(Path path, long sequence, FileChannel channel, String[] indexKeys, long[] indexOffsets,
+                    long dataEnd, int recordCount, BloomFilter<CharSequence> bloomFilter) {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.dataEnd = dataEnd;
+        this.recordCount = recordCount;
+        this.bloomFilter = bloomFilter;
+    }
+
+    /**
+     * Write a segment with sequential writes and open it.
+     * Segment is written to a temporary file and atomically moved to the target path, replacing any existing file.
+     *
+     * @param path          segment path
+     * @param sequence      segment sequence number
+     * @param records       records sorted by account ID, without duplicates
+     * @param expectedCount expected number of records, used for bloom filter sizing
+     * @return written segment
+     * @throws IOException if segment cannot be written
+     */
+    static Segment write(Path path, long sequence, Iterator<Map.Entry<String, AccountStateRecord>> records,
+                         int expectedCount) throws IOException {
+        Path tempPath = Paths.get(path + TEMP_SUFFIX);
+        BloomFilter<CharSequence> bloomFilter = BloomFilter.create(
+                Funnels.stringFunnel(UTF_8), Math.max(expectedCount, 1), BLOOM_FALSE_POSITIVE_RATE);
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        try (CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            DataOutputStream out = new DataOutputStream(counter);
+            int count = 0;
+            while (records.hasNext()) {
+                Map.Entry<String, AccountStateRecord> record = records.next();
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(record.getKey());
+                    indexOffsets.add(counter.getCount());
+                }
+                RecordCodec.write(out, record.getKey(), record.getValue());
+                bloomFilter.put(record.getKey());
+                count++;
+            }
+            long indexOffset = counter.getCount();
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeUTF(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            long bloomOffset = counter.getCount();
+            bloomFilter.writeTo(out);
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+        }
+        try (FileChannel written = FileChannel.open(tempPath, READ)) {
+            written.force(true);
+        }
+        Files.move(tempPath, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        return open(path, sequence);
+    }
+
+    /**
+     * Open a segment, loading its index and bloom filter.
+     *
+     * @param path     segment path
+     * @param sequence segment sequence number
+     * @return opened segment
+     * @throws IOException if segment cannot be read
+     */
+    static Segment open(Path path, long sequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, READ);
+        try {
+            long size = channel.size();
+            ByteBuffer footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            int recordCount = footer.getInt();
+            if (footer.getInt() != MAGIC) throw new IOException("Not a segment: " + path);
+
+            ByteBuffer index = read(channel, indexOffset, (int) (bloomOffset - indexOffset));
+            DataInputStream indexIn = new DataInputStream(new ByteArrayInputStream(index.array()));
+            int indexSize = indexIn.readInt();
+            String[] indexKeys = new String[indexSize];
+            long[] indexOffsets = new long[indexSize];
+            for (int i = 0; i < indexSize; i++) {
+                indexKeys[i] = indexIn.readUTF();
+                indexOffsets[i] = indexIn.readLong();
+            }
+
+            ByteBuffer bloom = read(channel, bloomOffset, (int) (size - FOOTER_SIZE - bloomOffset));
+            BloomFilter<CharSequence> bloomFilter = BloomFilter.readFrom(
+                    new ByteArrayInputStream(bloom.array()), Funnels.stringFunnel(UTF_8));
+
+            return new Segment(path, sequence, channel, indexKeys, indexOffsets,
+                    indexOffset, recordCount, bloomFilter);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Find a record. Needs at most one block read, and no reads at all for most absent keys.
+     *
+     * @param accountId account ID
+     * @return found record or null
+     * @throws IOException if segment cannot be read, e.g. it was closed after compaction
+     */
+    AccountStateRecord get(String accountId) throws IOException {
+        if (!bloomFilter.mightContain(accountId)) return null;
+        int block = blockOf(accountId);
+        if (block < 0) return null;
+        DataInputStream in = readBlock(block);
+        while (in.available() > 0) {
+            int comparison = RecordCodec.readKey(in).compareTo(accountId);
+            AccountStateRecord record = RecordCodec.readRecord(in);
+            if (comparison == 0) return record;
+            if (comparison > 0) return null;
+        }
+        return null;
+    }
+
+    /**
+     * Find many records in one forward pass: keys are sorted, so blocks are read in file order,
+     * and every block is read once no matter how many keys fall into it.
+     *
+     * @param sortedKeys account IDs in ascending order
+     * @param found      map to put found records to
+     * @return account IDs not found, in ascending order
+     * @throws IOException if segment cannot be read, e.g. it was closed after compaction
+     */
+    List<String> getAll(List<String> sortedKeys, Map<String, AccountStateRecord> found) throws IOException {
+        List<String> missing = new ArrayList<>();
+        int loadedBlock = -1;
+        Map<String, AccountStateRecord> blockRecords = new HashMap<>();
+        for (String key : sortedKeys) {
+            int block = bloomFilter.mightContain(key) ? blockOf(key) : -1;
+            if (block < 0) {
+                missing.add(key);
+                continue;
+            }
+            if (block != loadedBlock) {
+                blockRecords.clear();
+                DataInputStream in = readBlock(block);
+                while (in.available() > 0) {
+                    blockRecords.put(RecordCodec.readKey(in), RecordCodec.readRecord(in));
+                }
+                loadedBlock = block;
+            }
+            AccountStateRecord record = blockRecords.get(key);
+            if (record != null) {
+                found.put(key, record);
+            } else {
+                missing.add(key);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Iterate over all records in key order with sequential reads.
+     *
+     * @return records scanner, must be closed
+     * @throws IOException if segment cannot be read
+     */
+    Scanner scan() throws IOException {
+        return new Scanner(new BufferedInputStream(ByteStreams.limit(Files.newInputStream(path), dataEnd)));
+    }
+
+    /**
+     * Iterate over all records in key order, reading block by block through the segment channel.
+     * Unlike {@link #scan()}, it reads this segment even after its file was deleted by compaction,
+     * as long as the segment is pinned.
+     *
+     * @return records scanner, needs no closing
+     */
+    Scanner scanBlocks() {
+        return new Scanner(null);
+    }
+
+    /**
+     * Keep the segment readable until {@link #unpin()}, even if it gets closed meanwhile.
+     *
+     * @return false if the segment is already closed
+     */
+    synchronized boolean pin() {
+        if (closed) return false;
+        pins++;
+        return true;
+    }
+
+    synchronized void unpin() throws IOException {
+        if (--pins == 0 && closed) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (pins == 0) {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return index of the block which may contain the key, or -1 if the key is before the first record
+     */
+    private int blockOf(String accountId) {
+        int block = Arrays.binarySearch(indexKeys, accountId);
+        // Take the block starting before the key
+        return block >= 0 ? block : -block - 2;
+    }
+
+    private DataInputStream readBlock(int block) throws IOException {
+        long blockEnd = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        ByteBuffer data = read(indexOffsets[block], (int) (blockEnd - indexOffsets[block]));
+        return new DataInputStream(new ByteArrayInputStream(data.array()));
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        FileChannel current = channel;
+        try {
+            return read(current, position, length);
+        } catch (ClosedByInterruptException e) {
+            // Interrupted reader closes the channel for everyone, so reopen it for other readers
+            reopen(current);
+            throw e;
+        }
+    }
+
+    /**
+     * Reopen the file of a segment which is still in use. Its file is never replaced, only deleted once
+     * the segment is closed, so the reopened file has the same records as the index and bloom filter describe.
+     */
+    private synchronized void reopen(FileChannel interrupted) throws IOException {
+        if (channel == interrupted && !(closed && pins == 0)) {
+            channel = FileChannel.open(path, READ);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Sequential reader of segment records, from a file stream or block by block if there is no stream.
+     */
+    final class Scanner implements RecordCursor, Closeable {
+
+        private final InputStream stream;
+        private DataInputStream in;
+        private int nextBlock;
+        private int remaining = recordCount;
+        private String key;
+        private AccountStateRecord record;
+
+        private Scanner(InputStream stream) {
+            this.stream = stream;
+            this.in = stream == null ? null : new DataInputStream(stream);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                key = null;
+                record = null;
+                return false;
+            }
+            remaining--;
+            if (stream == null && (in == null || in.available() == 0)) {
+                in = readBlock(nextBlock++);
+            }
+            key = RecordCodec.readKey(in);
+            record = RecordCodec.readRecord(in);
+            return true;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public AccountStateRecord getRecord() {
+            return record;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+
+        Segment getSegment() {
+            return Segment.this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import me.akrasenkov.transfer.model.storage.AccountStateRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only log of committed writes of a {@link MemTable}.
+ * <p>
+ * Every transaction is appended as one batch: {@code [int length][int crc32][records]}.
+ * On replay, a torn or corrupted trailing batch is dropped as a whole,
+ * so a transaction is either recovered completely or not at all.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private final FileChannel channel;
+    private final boolean sync;
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private final DataOutputStream batchOut = new DataOutputStream(batch);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Open log for appending, creating it if needed.
+     *
+     * @param path log file path
+     * @param sync force every append to disk before returning
+     * @throws IOException if log cannot be opened
+     */
+    WriteAheadLog(Path path, boolean sync) throws IOException {
+        this.channel = FileChannel.open(path, CREATE, WRITE, APPEND);
+        this.sync = sync;
+    }
+
+    /**
+     * Append a batch of records as one sequential write.
+     *
+     * @param records records to append
+     * @throws IOException if append failed
+     */
+    void append(Collection<Map.Entry<String, AccountStateRecord>> records) throws IOException {
+        batch.reset();
+        batchOut.writeInt(0);
+        batchOut.writeInt(0);
+        for (Map.Entry<String, AccountStateRecord> record : records) {
+            RecordCodec.write(batchOut, record.getKey(), record.getValue());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+        crc.reset();
+        crc.update(buffer.array(), 8, buffer.limit() - 8);
+        buffer.putInt(0, buffer.limit() - 8);
+        buffer.putInt(4, (int) crc.getValue());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Replay all complete batches of a log.
+     *
+     * @param path     log file path
+     * @param consumer consumer of replayed records, in append order
+     * @throws IOException if log cannot be read
+     */
+    static void replay(Path path, BiConsumer<String, AccountStateRecord> consumer) throws IOException {
+        // Log size is bounded by memtable size, so it is read at once
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        while (log.remaining() >= 8) {
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length < 0 || length > log.remaining()) return;
+            crc.reset();
+            crc.update(log.array(), log.position(), length);
+            if ((int) crc.getValue() != checksum) return;
+            DataInputStream records = new DataInputStream(
+                    new ByteArrayInputStream(log.array(), log.position(), length));
+            while (records.available() > 0) {
+                String accountId = RecordCodec.readKey(records);
+                consumer.accept(accountId, RecordCodec.readRecord(records));
+            }
+            log.position(log.position() + length);
+        }
+    }
+}
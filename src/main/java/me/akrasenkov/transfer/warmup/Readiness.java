@@ -0,0 +1,73 @@
+package me.akrasenkov.transfer.warmup;
+
+import me.akrasenkov.transfer.metrics.LatencyHistogram;
+import me.akrasenkov.transfer.model.domain.ReadinessReport;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readiness of the app to serve traffic. The app is ready once it is warmed up,
+ * and latencies of requests during the first minute after that are recorded, to see what is left cold.
+ */
+public class Readiness {
+
+    private static final long FIRST_MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final LatencyHistogram firstMinute = new LatencyHistogram();
+
+    private volatile boolean ready;
+    private long readyNanos;
+    private long startupMillis;
+    private long warmupMillis;
+    private long warmupOperations;
+
+    /**
+     * Mark the app ready to serve traffic.
+     *
+     * @param warmupMillis     milliseconds spent warming up
+     * @param warmupOperations operations performed to warm up
+     */
+    public void markReady(long warmupMillis, long warmupOperations) {
+        this.readyNanos = System.nanoTime();
+        this.startupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        this.warmupMillis = warmupMillis;
+        this.warmupOperations = warmupOperations;
+        // Published by the volatile write
+        this.ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Record latency of a handled request, if it started within the first minute after readiness.
+     *
+     * @param startNanos    {@link System#nanoTime()} the request started at
+     * @param durationNanos duration of request handling
+     */
+    public void recordRequest(long startNanos, long durationNanos) {
+        if (ready && startNanos - readyNanos < FIRST_MINUTE_NANOS) {
+            firstMinute.record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return readiness with startup measurements
+     */
+    public ReadinessReport getReport() {
+        if (!ready) {
+            return ReadinessReport.builder()
+                    .ready(false)
+                    .build();
+        }
+        return ReadinessReport.builder()
+                .ready(true)
+                .startupMillis(startupMillis)
+                .warmupMillis(warmupMillis)
+                .warmupOperations(warmupOperations)
+                .firstMinute(firstMinute.getStats())
+                .build();
+    }
+}
@@ -0,0 +1,240 @@
+package me.akrasenkov.transfer.warmup;
+
+import com.google.common.io.CharStreams;
+import com.google.common.io.MoreFiles;
+import com.google.gson.Gson;
+import com.google.inject.Guice;
+import me.akrasenkov.transfer.App;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.AccountsQuery;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.Transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup warmup, which sends a RESTful API the requests the app serves, until the JIT compiler
+ * has compiled their whole path: Jetty, routes, lanes, providers, the configured storage and JSON.
+ * Then it marks the app ready.
+ * <p>
+ * Requests go over loopback to a throwaway app of the same configuration, with the same kind of storage,
+ * but of its own: LSM storage is kept in a temporary directory, removed once warmup is done.
+ * So accounts of the app are never touched, and no account is left behind in it.
+ * <p>
+ * Warmup runs in rounds until no method got compiled for a while, or the time limit is reached.
+ */
+public class Warmup {
+
+    private static final String ACCOUNT_ID_PREFIX = "warmup-";
+    private static final int ACCOUNTS = 16;
+    private static final int ROUND_OPERATIONS = 250;
+
+    /**
+     * Rounds run before compilation is checked, enough for hot methods to reach the optimizing compiler.
+     */
+    private static final int MIN_ROUNDS = 20;
+
+    /**
+     * Compilation is considered done once no method got compiled for this long.
+     */
+    private static final long QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    private static final BigDecimal EXCESSIVE_AMOUNT = new BigDecimal("1000000000");
+
+    private final Properties throwawayProperties;
+    private final Gson gson;
+    private final Readiness readiness;
+    private final long maxMillis;
+
+    /**
+     * @param throwawayProperties configuration of the throwaway app requests go to
+     * @param gson                serialization of the app, to build request bodies the way clients do
+     * @param readiness           readiness of the app, marked once warmup is done
+     * @param maxMillis           time limit of warmup, {@code 0} disables warmup
+     */
+    public Warmup(Properties throwawayProperties, Gson gson, Readiness readiness, long maxMillis) {
+        this.throwawayProperties = throwawayProperties;
+        this.gson = gson;
+        this.readiness = readiness;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Warm up through the RESTful API of a throwaway app and mark the app ready.
+     *
+     * @throws IOException if a request could not be sent, or failed with server error
+     */
+    public void run() throws IOException {
+        long start = System.nanoTime();
+        long operations = 0;
+        if (maxMillis > 0) {
+            Path directory = Files.createTempDirectory("warmup");
+            Properties properties = new Properties();
+            properties.putAll(throwawayProperties);
+            properties.setProperty(AppModule.LSM_DIRECTORY, directory.toString());
+            // Served on any free port, so it never takes one of the app
+            App throwaway = new App(0, Guice.createInjector(new AppModule(properties)));
+            try {
+                throwaway.run();
+                operations = warmUp(throwaway.getPort(), start);
+            } finally {
+                throwaway.stop();
+                MoreFiles.deleteRecursively(directory);
+            }
+        }
+        readiness.markReady(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), operations);
+    }
+
+    /**
+     * Run rounds of operations until compilation is done or the time limit is reached.
+     *
+     * @return number of operations performed
+     */
+    private long warmUp(int port, long start) throws IOException {
+        long operations = 0;
+        Operations ops = new Operations(port);
+        CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+        boolean monitored = compilation != null && compilation.isCompilationTimeMonitoringSupported();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        long compilationMillis = monitored ? compilation.getTotalCompilationTime() : 0;
+        long quietSince = start;
+        for (int round = 1; ; round++) {
+            for (int i = 0; i < ROUND_OPERATIONS; i++) {
+                ops.perform(operations++);
+            }
+            long now = System.nanoTime();
+            if (monitored) {
+                long current = compilation.getTotalCompilationTime();
+                if (current != compilationMillis) {
+                    compilationMillis = current;
+                    quietSince = now;
+                }
+            }
+            if (now - deadline >= 0) break;
+            if (round >= MIN_ROUNDS && (!monitored || now - quietSince >= QUIET_NANOS)) break;
+        }
+        return operations;
+    }
+
+    /**
+     * Mix of requests the app serves, in about the proportions of real traffic.
+     */
+    private final class Operations {
+        private final String baseUrl;
+        private final List<String> accountIds = new ArrayList<>();
+        private final Random random = new Random(0);
+
+        private Operations(int port) throws IOException {
+            this.baseUrl = "http://127.0.0.1:" + port;
+            for (int i = 0; i < ACCOUNTS; i++) {
+                String accountId = ACCOUNT_ID_PREFIX + i;
+                saveAccount(accountId, INITIAL_BALANCE);
+                accountIds.add(accountId);
+            }
+        }
+
+        private void perform(long operation) throws IOException {
+            String first = randomAccount();
+            String second = randomAccount();
+            send("POST", transferPath(first, second, AMOUNT), null);
+            send("GET", "/account/" + first, null);
+
+            if (operation % 8 == 0) {
+                // Account is saved back as it is, so its balance stays the same
+                String state = send("GET", "/account/" + second, null);
+                send("POST", "/account/", state);
+                send("POST", transferPath(first, second, EXCESSIVE_AMOUNT), null);
+            }
+            if (operation % 16 == 0) {
+                send("POST", "/transfers", gson.toJson(MultiTransfer.builder()
+                        .leg(transfer(first, second, AMOUNT))
+                        .leg(transfer(second, randomAccount(), AMOUNT))
+                        .build()));
+                send("POST", "/accounts/query", gson.toJson(AccountsQuery.builder()
+                        .accountIds(accountIds.subList(0, 8))
+                        .accountId(ACCOUNT_ID_PREFIX + "missing")
+                        .build()));
+                send("GET", "/account/" + ACCOUNT_ID_PREFIX + "missing", null);
+            }
+            if (operation % 256 == 0) {
+                send("GET", "/stats?top=10", null);
+            }
+        }
+
+        private void saveAccount(String accountId, BigDecimal balance) throws IOException {
+            send("POST", "/account/", gson.toJson(AccountState.builder()
+                    .accountId(accountId)
+                    .balance(balance)
+                    .build()));
+        }
+
+        private String randomAccount() {
+            return accountIds.get(random.nextInt(accountIds.size()));
+        }
+
+        /**
+         * Send request and read its response entirely, so the connection is kept for the next one.
+         *
+         * @return response body
+         * @throws IOException if request could not be sent, or failed with server error
+         */
+        private String send(String method, String path, String body) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            // Rejections and unknown accounts are part of the mix, so only server errors fail warmup
+            String response = "";
+            try (InputStream in = status >= HTTP_BAD_REQUEST
+                    ? connection.getErrorStream() : connection.getInputStream()) {
+                if (in != null) {
+                    response = CharStreams.toString(new InputStreamReader(in, StandardCharsets.UTF_8));
+                }
+            }
+            if (status >= HTTP_SERVER_ERROR) {
+                throw new IOException(method + " " + path + " failed with status " + status + ": " + response);
+            }
+            return response;
+        }
+    }
+
+    private static String transferPath(String senderId, String receiverId, BigDecimal amount) {
+        return "/transfer/" + senderId + "/to/" + receiverId + "?amount=" + amount.toPlainString();
+    }
+
+    private static Transfer transfer(String senderId, String receiverId, BigDecimal amount) {
+        return Transfer.builder()
+                .senderId(senderId)
+                .receiverId(receiverId)
+                .amount(amount)
+                .build();
+    }
+}
@@ -1,14 +1,26 @@
 package me.akrasenkov.transfer;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import me.akrasenkov.transfer.binary.BinaryProtocolClient;
+import me.akrasenkov.transfer.lane.LaneStats;
 import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.AccountStats;
+import me.akrasenkov.transfer.model.domain.AccountsQuery;
+import me.akrasenkov.transfer.model.domain.AccountsQueryResult;
+import me.akrasenkov.transfer.model.domain.ChangeEvent;
 import me.akrasenkov.transfer.model.domain.ExceptionMessage;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.MultiTransferReceipt;
+import me.akrasenkov.transfer.model.domain.ReadinessReport;
+import me.akrasenkov.transfer.model.domain.Transfer;
 import me.akrasenkov.transfer.model.domain.TransferReceipt;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import retrofit2.Call;
 import retrofit2.Response;
@@ -20,10 +32,23 @@ import retrofit2.http.POST;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
 
 /**
  * Integration tests suite for Funds Transfer Service.
@@ -35,6 +60,29 @@ public class TransferServiceRestApiTest {
      */
     private static final int APP_PORT = 8081;
 
+    /**
+     * Port for test application's binary API serving, to compare throughput of both APIs.
+     */
+    private static final int APP_BINARY_PORT = 8083;
+
+    /**
+     * Transfers made through each API to warm it up, and then to measure its throughput.
+     */
+    private static final int WARMUP_TRANSFERS = 2_000;
+    private static final int MEASURED_TRANSFERS = 5_000;
+    private static final int REST_CLIENT_THREADS = 4;
+    private static final int BINARY_PIPELINE_DEPTH = 256;
+
+    /**
+     * Time limit of the test application warmup, short as tests only check it has been done.
+     */
+    private static final long WARMUP_MILLIS = 200;
+
+    /**
+     * Change streams served at once by the test application.
+     */
+    private static final int MAX_STREAMS = 4;
+
     private static TransferService transferService;
     private static Retrofit retrofit;
     private static Gson gson;
@@ -47,8 +95,11 @@ public class TransferServiceRestApiTest {
      */
     @BeforeAll
     public static void setUp() {
-        Injector injector = Guice.createInjector(new AppModule());
-        app = new App(APP_PORT, injector);
+        Properties properties = new Properties();
+        properties.setProperty(AppModule.FEED_STREAMS, String.valueOf(MAX_STREAMS));
+        properties.setProperty(AppModule.WARMUP_MILLIS, String.valueOf(WARMUP_MILLIS));
+        Injector injector = Guice.createInjector(new AppModule(properties));
+        app = new App(APP_PORT, APP_BINARY_PORT, injector);
         app.run();
 
         gson = new GsonBuilder()
@@ -226,6 +277,319 @@ public class TransferServiceRestApiTest {
         assertThat(message.getValues()).containsExactly(sender.getBalance().toString());
     }
 
+    /**
+     * Test a query of many accounts at once.
+     * Service MUST:
+     *      - return the `200 OK` code
+     *      - return found accounts in order of queried IDs
+     *      - list IDs of accounts not found instead of failing the query
+     *
+     * @throws IOException Retrofit I/O exception
+     */
+    @Test
+    public void accountsQuery_PositiveCase() throws IOException {
+        AccountState first = transferService
+                .createAccount(AccountState.builder().balance(new BigDecimal("10.5")).build())
+                .execute()
+                .body();
+        AccountState second = transferService
+                .createAccount(AccountState.builder().balance(new BigDecimal("20")).blocked(true).build())
+                .execute()
+                .body();
+
+        Response<AccountsQueryResult> response = transferService.queryAccounts(AccountsQuery.builder()
+                .accountId(second.getAccountId())
+                .accountId("missing")
+                .accountId(first.getAccountId())
+                .build())
+                .execute();
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.body().getAccounts()).containsExactly(second, first).inOrder();
+        assertThat(response.body().getNotFound()).containsExactly("missing");
+    }
+
+    /**
+     * Test a negative case of query of many accounts: no IDs provided.
+     * Service MUST return the `400 Bad Request` code with `INVALID_PARAM` reason.
+     *
+     * @throws IOException Retrofit I/O exception
+     */
+    @Test
+    public void accountsQuery_EmptyNegativeCase() throws IOException {
+        Response<AccountsQueryResult> response = transferService
+                .queryAccounts(AccountsQuery.builder().build())
+                .execute();
+        assertThat(response.code()).isEqualTo(400);
+        ExceptionMessage message = gson.fromJson(response.errorBody().string(), ExceptionMessage.class);
+        assertThat(message.getReason()).isEqualTo(ExceptionMessage.Reason.INVALID_PARAM);
+    }
+
+    /**
+     * Test a positive case of one-to-many transfer.
+     * Service MUST debit the sender with the total amount, credit every receiver
+     * and return a combined receipt.
+     *
+     * @throws IOException Retrofit I/O exception
+     */
+    @Test
+    public void multiTransfer_OneToManyPositiveCase() throws IOException {
+        AccountState sender = createAccountAndCheck(new BigDecimal("100"));
+        AccountState firstReceiver = createAccountAndCheck(new BigDecimal("0"));
+        AccountState secondReceiver = createAccountAndCheck(new BigDecimal("5"));
+
+        Response<MultiTransferReceipt> response = transferService.performMultiTransfer(MultiTransfer.builder()
+                .leg(leg(sender, firstReceiver, new BigDecimal("30")))
+                .leg(leg(sender, secondReceiver, new BigDecimal("45")))
+                .build())
+                .execute();
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.body().getLegCount()).isEqualTo(2);
+        assertThat(response.body().getTotalAmount()).isEqualTo(new BigDecimal("75"));
+
+        assertThat(getAccountAndCheck(sender.getAccountId()).getBalance()).isEqualTo(new BigDecimal("25"));
+        assertThat(getAccountAndCheck(firstReceiver.getAccountId()).getBalance()).isEqualTo(new BigDecimal("30"));
+        assertThat(getAccountAndCheck(secondReceiver.getAccountId()).getBalance()).isEqualTo(new BigDecimal("50"));
+    }
+
+    /**
+     * Test statistics of lanes serving reads and writes.
+     * Account creation MUST be served by the write lane, and account fetch by the read lane.
+     *
+     * @throws IOException Retrofit I/O exception
+     */
+    @Test
+    public void lanes_ServeReadsAndWritesSeparately() throws IOException {
+        List<LaneStats> before = transferService.getLanes().execute().body();
+        AccountState account = createAccountAndCheck(new BigDecimal("1"));
+        getAccountAndCheck(account.getAccountId());
+
+        Response<List<LaneStats>> response = transferService.getLanes().execute();
+        assertThat(response.code()).isEqualTo(200);
+        List<LaneStats> after = response.body();
+        assertThat(after.get(0).getName()).isEqualTo("read");
+        assertThat(after.get(1).getName()).isEqualTo("write");
+        // Service latency is recorded before the result is handed over, unlike the completed count
+        assertThat(after.get(0).getServiceLatency().getCount())
+                .isAtLeast(before.get(0).getServiceLatency().getCount() + 1);
+        assertThat(after.get(1).getServiceLatency().getCount())
+                .isAtLeast(before.get(1).getServiceLatency().getCount() + 1);
+    }
+
+    /**
+     * Compare throughput of transfers through RESTful API, with several clients making requests one by one,
+     * and through binary API, with one connection pipelining requests. Binary API MUST be faster:
+     * its frames skip HTTP and JSON, and pipelining hides round trips.
+     *
+     * @throws Exception Retrofit I/O exception or binary client exception
+     */
+    @Test
+    @Tag("benchmark")
+    public void transfersThroughput_BinaryApiAboveRest() throws Exception {
+        AccountState sender = createAccountAndCheck(new BigDecimal("1000000"));
+        AccountState receiver = createAccountAndCheck(new BigDecimal("0"));
+        Transfer transfer = leg(sender, receiver, new BigDecimal("0.01"));
+
+        ExecutorService restClients = Executors.newFixedThreadPool(REST_CLIENT_THREADS);
+        try (BinaryProtocolClient binaryClient = new BinaryProtocolClient("localhost", APP_BINARY_PORT)) {
+            restTransfers(restClients, transfer, WARMUP_TRANSFERS);
+            binaryTransfers(binaryClient, transfer, WARMUP_TRANSFERS);
+
+            long restStart = System.nanoTime();
+            restTransfers(restClients, transfer, MEASURED_TRANSFERS);
+            double restPerSecond = MEASURED_TRANSFERS * 1e9 / (System.nanoTime() - restStart);
+
+            long binaryStart = System.nanoTime();
+            binaryTransfers(binaryClient, transfer, MEASURED_TRANSFERS);
+            double binaryPerSecond = MEASURED_TRANSFERS * 1e9 / (System.nanoTime() - binaryStart);
+
+            assertWithMessage("transfers per second: REST %s, binary %s", restPerSecond, binaryPerSecond)
+                    .that(binaryPerSecond).isGreaterThan(restPerSecond);
+        } finally {
+            restClients.shutdownNow();
+        }
+        // Both APIs made warmup and measured transfers
+        BigDecimal moved = transfer.getAmount().multiply(BigDecimal.valueOf(2L * (WARMUP_TRANSFERS + MEASURED_TRANSFERS)));
+        assertThat(getAccountAndCheck(receiver.getAccountId()).getBalance()).isEquivalentAccordingToCompareTo(moved);
+    }
+
+    /**
+     * Test readiness of the app once it has started.
+     * Service MUST report it is ready with startup measurements, and count requests of its first minute.
+     *
+     * @throws IOException Retrofit I/O exception
+     */
+    @Test
+    public void ready_AfterWarmup() throws IOException {
+        createAccountAndCheck(new BigDecimal("1"));
+
+        Response<ReadinessReport> response = transferService.getReadiness().execute();
+        assertThat(response.code()).isEqualTo(200);
+        ReadinessReport report = response.body();
+        assertThat(report.isReady()).isTrue();
+        assertThat(report.getStartupMillis()).isAtLeast(report.getWarmupMillis());
+        assertThat(report.getWarmupOperations()).isGreaterThan(0L);
+        assertThat(report.getFirstMinute().getCount()).isGreaterThan(0L);
+    }
+
+    /**
+     * Test statistics over accounts across creations and transfers.
+     * Statistics MUST count new accounts, list the richest one first
+     * and confirm money is conserved against the first statistics computed.
+     *
+     * @throws IOException Retrofit I/O exception
+     */
+    @Test
+    public void stats_ConservedAcrossTransfers() throws IOException {
+        Response<AccountStats> baseline = transferService.getStats(null).execute();
+        assertThat(baseline.code()).isEqualTo(200);
+
+        AccountState sender = createAccountAndCheck(new BigDecimal("1000000000"));
+        AccountState receiver = createAccountAndCheck(new BigDecimal("0"));
+        Response<TransferReceipt> transfer = transferService.performTransfer(
+                sender.getAccountId(), receiver.getAccountId(), new BigDecimal("10")).execute();
+        assertThat(transfer.code()).isEqualTo(200);
+
+        Response<AccountStats> response = transferService.getStats(1).execute();
+        assertThat(response.code()).isEqualTo(200);
+        AccountStats stats = response.body();
+        assertThat(stats.getConserved()).isTrue();
+        assertThat(stats.getTotalBalance()).isEquivalentAccordingToCompareTo(stats.getExpectedTotalBalance());
+        assertThat(stats.getAccountCount()).isAtLeast(baseline.body().getAccountCount() + 2);
+        assertThat(stats.getTopAccounts()).hasSize(1);
+        assertThat(stats.getTopAccounts().get(0).getAccountId()).isEqualTo(sender.getAccountId());
+
+        assertThat(transferService.getStats(-1).execute().code()).isEqualTo(400);
+    }
+
+    /**
+     * Test a negative case of one-to-many transfer, where the sender can cover each leg but not all of them.
+     * Service MUST return the `400 Bad Request` code with `NOT_ENOUGH_FUNDS` reason
+     * and leave all accounts unchanged.
+     *
+     * @throws IOException Retrofit I/O exception
+     */
+    @Test
+    public void multiTransfer_AllOrNothingNegativeCase() throws IOException {
+        AccountState sender = createAccountAndCheck(new BigDecimal("100"));
+        AccountState firstReceiver = createAccountAndCheck(new BigDecimal("0"));
+        AccountState secondReceiver = createAccountAndCheck(new BigDecimal("0"));
+
+        Response<MultiTransferReceipt> response = transferService.performMultiTransfer(MultiTransfer.builder()
+                .leg(leg(sender, firstReceiver, new BigDecimal("60")))
+                .leg(leg(sender, secondReceiver, new BigDecimal("60")))
+                .build())
+                .execute();
+        assertThat(response.code()).isEqualTo(400);
+        ExceptionMessage message = gson.fromJson(response.errorBody().string(), ExceptionMessage.class);
+        assertThat(message.getReason()).isEqualTo(ExceptionMessage.Reason.NOT_ENOUGH_FUNDS);
+
+        assertThat(getAccountAndCheck(sender.getAccountId()).getBalance()).isEqualTo(new BigDecimal("100"));
+        assertThat(getAccountAndCheck(firstReceiver.getAccountId()).getBalance()).isEqualTo(new BigDecimal("0"));
+        assertThat(getAccountAndCheck(secondReceiver.getAccountId()).getBalance()).isEqualTo(new BigDecimal("0"));
+    }
+
+    /**
+     * Test a change feed stream.
+     * Service MUST stream committed states of both accounts of a transfer, as newline-delimited JSON.
+     *
+     * @throws IOException HTTP I/O exception
+     */
+    @Test
+    public void changeFeed_StreamsTransferChanges() throws IOException {
+        // Changes are kept only while streamed, so the stream is started first, as its heartbeat shows
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://localhost:" + APP_PORT + "/changes").openConnection();
+        connection.setReadTimeout(10_000);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+            assertThat(connection.getContentType()).isEqualTo("application/x-ndjson");
+            assertThat(gson.fromJson(reader.readLine(), ChangeEvent.class).getType())
+                    .isEqualTo(ChangeEvent.Type.HEARTBEAT);
+
+            AccountState sender = transferService
+                    .createAccount(AccountState.builder().balance(new BigDecimal("100")).build())
+                    .execute()
+                    .body();
+            AccountState receiver = transferService
+                    .createAccount(AccountState.builder().balance(new BigDecimal("0")).build())
+                    .execute()
+                    .body();
+            transferService.performTransfer(sender.getAccountId(), receiver.getAccountId(), new BigDecimal("30"))
+                    .execute();
+
+            BigDecimal senderBalance = null;
+            BigDecimal receiverBalance = null;
+            while (!new BigDecimal("70").equals(senderBalance) || !new BigDecimal("30").equals(receiverBalance)) {
+                ChangeEvent event = gson.fromJson(reader.readLine(), ChangeEvent.class);
+                assertThat(event.getType()).isNotEqualTo(ChangeEvent.Type.GAP);
+                if (sender.getAccountId().equals(event.getAccountId())) {
+                    senderBalance = event.getBalance();
+                } else if (receiver.getAccountId().equals(event.getAccountId())) {
+                    receiverBalance = event.getBalance();
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Test a negative case of change feed streams beyond the maximum.
+     * Service MUST return the `503 Service Unavailable` code with `OVERLOADED` reason while the maximum
+     * of streams is served, and serve streams again once their consumers disconnect.
+     *
+     * @throws IOException HTTP I/O exception
+     */
+    @Test
+    public void changeFeed_StreamsBeyondMaximumRejected() throws IOException {
+        List<HttpURLConnection> streams = new ArrayList<>();
+        try {
+            for (int i = 0; i < MAX_STREAMS; i++) {
+                HttpURLConnection stream = openChanges();
+                streams.add(stream);
+                assertThat(stream.getResponseCode()).isEqualTo(200);
+                // The stream holds its server thread once its heartbeat comes
+                BufferedReader reader = new BufferedReader(new InputStreamReader(stream.getInputStream()));
+                assertThat(gson.fromJson(reader.readLine(), ChangeEvent.class).getType())
+                        .isEqualTo(ChangeEvent.Type.HEARTBEAT);
+            }
+
+            HttpURLConnection rejected = openChanges();
+            try {
+                assertThat(rejected.getResponseCode()).isEqualTo(503);
+                ExceptionMessage message = gson.fromJson(
+                        new InputStreamReader(rejected.getErrorStream()), ExceptionMessage.class);
+                assertThat(message.getReason()).isEqualTo(ExceptionMessage.Reason.OVERLOADED);
+                assertThat(message.getValues()).containsExactly("changes");
+            } finally {
+                rejected.disconnect();
+            }
+        } finally {
+            for (HttpURLConnection stream : streams) {
+                stream.disconnect();
+            }
+        }
+
+        // Streams find their consumers gone with their next heartbeat, then streams are served again
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            HttpURLConnection stream = openChanges();
+            try {
+                if (stream.getResponseCode() == 200) break;
+            } finally {
+                stream.disconnect();
+            }
+            assertThat(System.nanoTime() - deadline).isLessThan(0L);
+            Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static HttpURLConnection openChanges() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://localhost:" + APP_PORT + "/changes").openConnection();
+        connection.setReadTimeout(10_000);
+        return connection;
+    }
+
     /**
      * Helper method for performing funds transfer and response check.
      *
@@ -250,6 +614,59 @@ public class TransferServiceRestApiTest {
         return gson.fromJson(transferResponse.errorBody().string(), ExceptionMessage.class);
     }
 
+    private void restTransfers(ExecutorService clients, Transfer transfer, int count) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < REST_CLIENT_THREADS; thread++) {
+            futures.add(clients.submit(() -> {
+                for (int i = 0; i < count / REST_CLIENT_THREADS; i++) {
+                    Response<TransferReceipt> response = transferService.performTransfer(
+                            transfer.getSenderId(), transfer.getReceiverId(), transfer.getAmount()).execute();
+                    assertThat(response.code()).isEqualTo(200);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static void binaryTransfers(BinaryProtocolClient client, Transfer transfer, int count) throws Exception {
+        List<CompletableFuture<TransferReceipt>> window = new ArrayList<>(BINARY_PIPELINE_DEPTH);
+        for (int i = 0; i < count; i++) {
+            window.add(client.performTransfer(transfer));
+            if (window.size() == BINARY_PIPELINE_DEPTH || i == count - 1) {
+                for (CompletableFuture<TransferReceipt> receipt : window) {
+                    receipt.get();
+                }
+                window.clear();
+            }
+        }
+    }
+
+    /**
+     * Helper method for account creation and response check.
+     *
+     * @param balance initial balance
+     * @return created account state
+     * @throws IOException Retrofit I/O exception
+     */
+    private AccountState createAccountAndCheck(BigDecimal balance) throws IOException {
+        Response<AccountState> response = transferService
+                .createAccount(AccountState.builder().balance(balance).build())
+                .execute();
+        assertThat(response.code()).isEqualTo(201);
+        return response.body();
+    }
+
+    private static Transfer leg(AccountState sender, AccountState receiver, BigDecimal amount) {
+        return Transfer.builder()
+                .senderId(sender.getAccountId())
+                .receiverId(receiver.getAccountId())
+                .amount(amount)
+                .build();
+    }
+
     /**
      * Helper method for account fetching and response check.
      *
@@ -276,11 +693,26 @@ public class TransferServiceRestApiTest {
         @GET("/account/{accountId}")
         Call<AccountState> getAccount(@Path("accountId") String accountId);
 
+        @POST("/accounts/query")
+        Call<AccountsQueryResult> queryAccounts(@Body AccountsQuery query);
+
         @POST("/transfer/{senderId}/to/{receiverId}")
         Call<TransferReceipt> performTransfer(@Path("senderId") String senderId,
                                               @Path("receiverId") String receiverId,
                                               @Query("amount") BigDecimal amount);
 
+        @POST("/transfers")
+        Call<MultiTransferReceipt> performMultiTransfer(@Body MultiTransfer transfer);
+
+        @GET("/lanes")
+        Call<List<LaneStats>> getLanes();
+
+        @GET("/ready")
+        Call<ReadinessReport> getReadiness();
+
+        @GET("/stats")
+        Call<AccountStats> getStats(@Query("top") Integer top);
+
     }
 
 }
@@ -0,0 +1,225 @@
+package me.akrasenkov.transfer.binary;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.exception.AccountBlockedException;
+import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
+import me.akrasenkov.transfer.exception.impl.NotEnoughFundsException;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferReceipt;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Integration tests suite for binary API of Funds Transfer Service.
+ */
+public class TransferServiceBinaryApiTest {
+
+    /**
+     * Port for test application's binary API serving.
+     */
+    private static final int APP_BINARY_PORT = 8082;
+
+    private static TransferServiceBinaryApi binaryApi;
+    private static BinaryProtocolClient client;
+
+    /**
+     * Setting up integration tests environment.
+     * We start only the binary API here, so RESTful API tests can start SparkJava independently.
+     *
+     * @throws IOException if client connection failed
+     */
+    @BeforeAll
+    public static void setUp() throws IOException {
+        Injector injector = Guice.createInjector(new AppModule());
+        binaryApi = injector.getInstance(TransferServiceBinaryApi.class);
+        binaryApi.init(APP_BINARY_PORT);
+        client = new BinaryProtocolClient("localhost", APP_BINARY_PORT);
+    }
+
+    @AfterAll
+    public static void tearDown() throws IOException {
+        client.close();
+        binaryApi.stop();
+    }
+
+    /**
+     * Test a positive case of creating and fetching an account.
+     */
+    @Test
+    public void accountCreationTest_PositiveCase() throws Exception {
+        AccountState state = AccountState.builder()
+                .balance(new BigDecimal("56778.456"))
+                .blocked(true)
+                .build();
+
+        AccountState createdState = client.createAccount(state).get();
+        assertThat(createdState.getAccountId()).isNotEmpty();
+        assertThat(createdState.getBalance()).isEqualTo(state.getBalance());
+        assertThat(createdState.isBlocked()).isTrue();
+
+        AccountState fetchedState = client.getAccount(createdState.getAccountId()).get();
+        assertThat(fetchedState).isEqualTo(createdState);
+    }
+
+    /**
+     * Test a positive case of pipelined funds transfers over one connection.
+     * Service MUST apply every transfer and answer every request.
+     */
+    @Test
+    public void fundsTransfer_PipelinedPositiveCase() throws Exception {
+        AccountState sender = createAccount("1000", false);
+        AccountState receiver = createAccount("0", false);
+        BigDecimal amount = new BigDecimal("1.5");
+
+        List<CompletableFuture<TransferReceipt>> receipts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            receipts.add(client.performTransfer(Transfer.builder()
+                    .senderId(sender.getAccountId())
+                    .receiverId(receiver.getAccountId())
+                    .amount(amount)
+                    .build()));
+        }
+        for (CompletableFuture<TransferReceipt> receipt : receipts) {
+            assertThat(receipt.get().getAmount()).isEqualTo(amount);
+        }
+
+        AccountState updatedSender = client.getAccount(sender.getAccountId()).get();
+        AccountState updatedReceiver = client.getAccount(receiver.getAccountId()).get();
+        assertThat(updatedSender.getBalance()).isEqualTo(new BigDecimal("850.0"));
+        assertThat(updatedReceiver.getBalance()).isEqualTo(new BigDecimal("150.0"));
+    }
+
+    /**
+     * Test negative cases of funds transfer. Service MUST report the same reasons as RESTful API.
+     */
+    @Test
+    public void fundsTransfer_NegativeCases() throws Exception {
+        AccountState sender = createAccount("1.01", false);
+        AccountState receiverBlocked = createAccount("100", true);
+        AccountState receiver = createAccount("100", false);
+
+        ExecutionException notEnoughFunds = assertThrows(ExecutionException.class,
+                () -> transfer(sender, receiver, "1.02").get());
+        assertThat(notEnoughFunds.getCause()).isInstanceOf(NotEnoughFundsException.class);
+        assertThat(((NotEnoughFundsException) notEnoughFunds.getCause()).getAmountAvailable())
+                .isEqualTo(sender.getBalance());
+
+        ExecutionException blocked = assertThrows(ExecutionException.class,
+                () -> transfer(sender, receiverBlocked, "1").get());
+        assertThat(blocked.getCause()).isInstanceOf(AccountBlockedException.class);
+        assertThat(((AccountBlockedException) blocked.getCause()).getAccountId())
+                .isEqualTo(receiverBlocked.getAccountId());
+
+        ExecutionException notFound = assertThrows(ExecutionException.class,
+                () -> client.getAccount("missing").get());
+        assertThat(notFound.getCause()).isInstanceOf(AccountNotFoundException.class);
+    }
+
+    /**
+     * Test requests without account IDs. Service MUST reject them as invalid params.
+     */
+    @Test
+    public void missingAccountIds_InvalidParam() throws Exception {
+        AccountState account = createAccount("1", false);
+
+        ExecutionException noAccountId = assertThrows(ExecutionException.class,
+                () -> client.getAccount(null).get());
+        assertThat(noAccountId.getCause()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(noAccountId.getCause().getMessage()).isEqualTo("accountId");
+
+        ExecutionException noSenderId = assertThrows(ExecutionException.class,
+                () -> client.performTransfer(Transfer.builder()
+                        .receiverId(account.getAccountId())
+                        .amount(BigDecimal.ONE)
+                        .build()).get());
+        assertThat(noSenderId.getCause()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(noSenderId.getCause().getMessage()).isEqualTo("senderId");
+
+        ExecutionException noReceiverId = assertThrows(ExecutionException.class,
+                () -> client.performTransfer(Transfer.builder()
+                        .senderId(account.getAccountId())
+                        .amount(BigDecimal.ONE)
+                        .build()).get());
+        assertThat(noReceiverId.getCause()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(noReceiverId.getCause().getMessage()).isEqualTo("receiverId");
+    }
+
+    /**
+     * Test transfers of zero and negative amounts. Service MUST reject them as invalid params
+     * and keep balances intact, as RESTful API does.
+     */
+    @Test
+    public void nonPositiveAmount_InvalidParam() throws Exception {
+        AccountState sender = createAccount("10", false);
+        AccountState receiver = createAccount("0", false);
+
+        for (String amount : new String[]{"0", "-5"}) {
+            ExecutionException invalid = assertThrows(ExecutionException.class,
+                    () -> transfer(sender, receiver, amount).get());
+            assertThat(invalid.getCause()).isInstanceOf(IllegalArgumentException.class);
+            assertThat(invalid.getCause().getMessage()).isEqualTo("amount");
+        }
+
+        assertThat(client.getAccount(sender.getAccountId()).get().getBalance()).isEqualTo(new BigDecimal("10"));
+        assertThat(client.getAccount(receiver.getAccountId()).get().getBalance()).isEqualTo(new BigDecimal("0"));
+    }
+
+    /**
+     * Test stopping an API which was never initialized. It MUST do nothing.
+     */
+    @Test
+    public void stopWithoutInit_DoesNothing() {
+        Guice.createInjector(new AppModule()).getInstance(TransferServiceBinaryApi.class).stop();
+    }
+
+    /**
+     * Test a rejection which does not fit a frame: available amount of thousands of digits.
+     * Service MUST answer it as unknown exception and keep serving the connection.
+     */
+    @Test
+    public void oversizedResponse_ConnectionKeepsServing() throws Exception {
+        BigDecimal hugeBalance = new BigDecimal(BigInteger.TEN.pow(5000));
+        AccountState sender = client.createAccount(AccountState.builder().balance(hugeBalance).build()).get();
+        AccountState receiver = createAccount("0", false);
+
+        ExecutionException tooLarge = assertThrows(ExecutionException.class,
+                () -> client.performTransfer(Transfer.builder()
+                        .senderId(sender.getAccountId())
+                        .receiverId(receiver.getAccountId())
+                        .amount(hugeBalance.add(BigDecimal.ONE))
+                        .build()).get());
+        assertThat(tooLarge.getCause()).isInstanceOf(IllegalStateException.class);
+
+        assertThat(client.getAccount(sender.getAccountId()).get().getBalance()).isEqualTo(hugeBalance);
+    }
+
+    private CompletableFuture<TransferReceipt> transfer(AccountState sender, AccountState receiver, String amount) {
+        return client.performTransfer(Transfer.builder()
+                .senderId(sender.getAccountId())
+                .receiverId(receiver.getAccountId())
+                .amount(new BigDecimal(amount))
+                .build());
+    }
+
+    private AccountState createAccount(String balance, boolean blocked) throws Exception {
+        return client.createAccount(AccountState.builder()
+                .balance(new BigDecimal(balance))
+                .blocked(blocked)
+                .build()).get();
+    }
+}
@@ -0,0 +1,114 @@
+package me.akrasenkov.transfer.feed;
+
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.ChangeEvent;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests suite for {@link ChangeFeed}.
+ */
+public class ChangeFeedTest {
+
+    /**
+     * Changes MUST be read in publication order with increasing sequence numbers, in batches of limited size.
+     */
+    @Test
+    public void poll_ReturnsChangesInOrder() throws Exception {
+        ChangeFeed feed = new ChangeFeed(16);
+        feed.publish(states(0, 5));
+
+        List<ChangeEvent> first = feed.poll(0, 3, 0, TimeUnit.MILLISECONDS);
+        assertThat(sequences(first)).containsExactly(1L, 2L, 3L).inOrder();
+        assertThat(first.get(0).getAccountId()).isEqualTo("account-0");
+        assertThat(first.get(0).getType()).isEqualTo(ChangeEvent.Type.CHANGE);
+
+        List<ChangeEvent> second = feed.poll(3, 3, 0, TimeUnit.MILLISECONDS);
+        assertThat(sequences(second)).containsExactly(4L, 5L).inOrder();
+        assertThat(feed.poll(5, 3, 10, TimeUnit.MILLISECONDS)).isEmpty();
+    }
+
+    /**
+     * Consumer behind by more than capacity MUST get a gap up to the oldest change kept, and continue after it.
+     */
+    @Test
+    public void poll_SlowConsumerGetsGap() throws Exception {
+        ChangeFeed feed = new ChangeFeed(4);
+        feed.publish(states(0, 10));
+
+        List<ChangeEvent> gap = feed.poll(2, 100, 0, TimeUnit.MILLISECONDS);
+        assertThat(gap).containsExactly(ChangeEvent.gap(6));
+
+        assertThat(sequences(feed.poll(6, 100, 0, TimeUnit.MILLISECONDS)))
+                .containsExactly(7L, 8L, 9L, 10L).inOrder();
+    }
+
+    /**
+     * Consumer behind skipped changes MUST get a gap up to the last change skipped, and continue after it.
+     */
+    @Test
+    public void poll_SkippedChangesReportedAsGap() throws Exception {
+        ChangeFeed feed = new ChangeFeed(16);
+        assertThat(feed.hasSubscribers()).isFalse();
+        feed.publish(states(0, 2));
+        feed.skip(3);
+        feed.subscribe();
+        assertThat(feed.hasSubscribers()).isTrue();
+        feed.publish(states(5, 2));
+
+        assertThat(feed.poll(0, 100, 0, TimeUnit.MILLISECONDS)).containsExactly(ChangeEvent.gap(5));
+        assertThat(feed.poll(1, 100, 0, TimeUnit.MILLISECONDS)).containsExactly(ChangeEvent.gap(5));
+        List<ChangeEvent> events = feed.poll(5, 100, 0, TimeUnit.MILLISECONDS);
+        assertThat(sequences(events)).containsExactly(6L, 7L).inOrder();
+        assertThat(events.get(0).getAccountId()).isEqualTo("account-5");
+
+        feed.unsubscribe();
+        assertThat(feed.hasSubscribers()).isFalse();
+    }
+
+    /**
+     * Waiting consumer MUST be woken up by a change published.
+     */
+    @Test
+    public void poll_WaitsForChanges() throws Exception {
+        ChangeFeed feed = new ChangeFeed(4);
+        Thread publisher = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            feed.publish(states(0, 1));
+        });
+        publisher.start();
+
+        List<ChangeEvent> events = feed.poll(0, 100, 10, TimeUnit.SECONDS);
+        assertThat(sequences(events)).containsExactly(1L);
+        publisher.join();
+    }
+
+    private static List<AccountState> states(int from, int count) {
+        List<AccountState> states = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            states.add(AccountState.builder()
+                    .accountId("account-" + i)
+                    .balance(BigDecimal.valueOf(i))
+                    .build());
+        }
+        return states;
+    }
+
+    private static List<Long> sequences(List<ChangeEvent> events) {
+        List<Long> sequences = new ArrayList<>();
+        for (ChangeEvent event : events) {
+            sequences.add(event.getSequence());
+        }
+        return sequences;
+    }
+}
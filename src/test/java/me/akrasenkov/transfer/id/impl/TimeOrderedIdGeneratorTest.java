@@ -0,0 +1,64 @@
+package me.akrasenkov.transfer.id.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests suite for {@link TimeOrderedIdGenerator}.
+ */
+public class TimeOrderedIdGeneratorTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 50_000;
+
+    /**
+     * Generator MUST produce unique IDs from many threads at once.
+     */
+    @Test
+    public void generateId_UniqueAcrossThreads() throws Exception {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(42);
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < IDS_PER_THREAD; j++) {
+                        ids.add(generator.generateId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(ids).hasSize(THREADS * IDS_PER_THREAD);
+    }
+
+    /**
+     * IDs of one thread MUST be ordered by creation as strings, keep UUID format and carry node ID.
+     */
+    @Test
+    public void generateId_TimeOrderedAndNodeTagged() {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(42);
+        String previous = generator.generateId();
+        for (int i = 0; i < 10_000; i++) {
+            String id = generator.generateId();
+            assertThat(id.compareTo(previous)).isGreaterThan(0);
+            assertThat(UUID.fromString(id).getMostSignificantBits() & 0xFFFF).isEqualTo(42);
+            previous = id;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.akrasenkov.transfer.lane;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests suite for {@link Lane}.
+ */
+public class LaneTest {
+
+    /**
+     * Full lane MUST reject tasks at once, rethrow task exceptions as they are, and count all of them.
+     */
+    @Test
+    public void fullLane_RejectsAtOnce() throws Exception {
+        Lane lane = new Lane("test", 1, 1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<String> running = callers.submit(() -> lane.call(() -> {
+                started.countDown();
+                release.await();
+                return "running";
+            }));
+            started.await();
+            Future<String> queued = callers.submit(() -> lane.call(() -> "queued"));
+            while (lane.getStats().getQueueDepth() == 0) {
+                Thread.yield();
+            }
+
+            RejectedExecutionException rejected = assertThrows(RejectedExecutionException.class,
+                    () -> lane.call(() -> "rejected"));
+            assertThat(rejected.getMessage()).isEqualTo("test");
+            release.countDown();
+            assertThat(running.get()).isEqualTo("running");
+            assertThat(queued.get()).isEqualTo("queued");
+            assertThrows(IllegalStateException.class, () -> lane.call(() -> {
+                throw new IllegalStateException();
+            }));
+
+            LaneStats stats = lane.getStats();
+            assertThat(stats.getServiceLatency().getCount()).isEqualTo(3L);
+            assertThat(stats.getRejectedCount()).isEqualTo(1L);
+            assertThat(stats.getWaitLatency().getCount()).isEqualTo(3L);
+            assertThat(lane.getCapacity()).isEqualTo(2);
+        } finally {
+            callers.shutdownNow();
+            lane.close();
+        }
+    }
+
+    /**
+     * Writes fill the write lane, all blocked as if waiting for the transaction lock, on server threads shared
+     * by all requests and sized for both lanes to be full, as Jetty threads of the app are.
+     * Reads MUST still be served meanwhile, and further writes MUST be rejected at once instead of taking
+     * the threads reads are served by.
+     */
+    @Test
+    public void fullWriteLane_ReadsStillServed() throws Exception {
+        Lane readLane = new Lane("read", 2, 4);
+        Lane writeLane = new Lane("write", 2, 2);
+        ExecutorService server = Executors.newFixedThreadPool(readLane.getCapacity() + writeLane.getCapacity());
+        CountDownLatch writing = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            List<Future<String>> writes = new ArrayList<>();
+            for (int i = 0; i < writeLane.getCapacity(); i++) {
+                writes.add(server.submit(() -> writeLane.call(() -> {
+                    writing.countDown();
+                    release.await();
+                    return "written";
+                })));
+            }
+            writing.await();
+            while (writeLane.getStats().getQueueDepth() < 2) {
+                Thread.yield();
+            }
+
+            assertThat(server.submit(() -> readLane.call(() -> "read")).get()).isEqualTo("read");
+            ExecutionException rejected = assertThrows(ExecutionException.class,
+                    () -> server.submit(() -> writeLane.call(() -> "rejected")).get());
+            assertThat(rejected.getCause()).isInstanceOf(RejectedExecutionException.class);
+
+            release.countDown();
+            for (Future<String> write : writes) {
+                assertThat(write.get()).isEqualTo("written");
+            }
+            assertThat(writeLane.getStats().getRejectedCount()).isEqualTo(1L);
+            assertThat(readLane.getStats().getRejectedCount()).isEqualTo(0L);
+        } finally {
+            release.countDown();
+            server.shutdownNow();
+            readLane.close();
+            writeLane.close();
+        }
+    }
+}
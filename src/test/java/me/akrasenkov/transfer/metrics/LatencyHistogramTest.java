@@ -0,0 +1,54 @@
+package me.akrasenkov.transfer.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Unit tests suite for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    private static final int LATENCIES = 100_000;
+
+    /**
+     * Percentile estimates MUST never be below exact percentiles, and MUST exceed them by less than 12.5%.
+     */
+    @Test
+    public void percentiles_WithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(0);
+        long[] micros = new long[LATENCIES];
+        for (int i = 0; i < LATENCIES; i++) {
+            // Log-uniform from 1 microsecond to about 1 second
+            micros[i] = (long) Math.exp(random.nextDouble() * Math.log(1_000_000));
+            histogram.record(micros[i] * 1000 + random.nextInt(1000), TimeUnit.NANOSECONDS);
+        }
+        Arrays.sort(micros);
+
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long exact = micros[(int) Math.ceil(LATENCIES * percentile / 100) - 1];
+            long estimate = histogram.percentile(percentile);
+            assertWithMessage("p%s", percentile).that(estimate).isAtLeast(exact);
+            assertWithMessage("p%s", percentile).that((double) estimate).isLessThan(exact * 1.125 + 1);
+        }
+        assertThat(histogram.getCount()).isEqualTo((long) LATENCIES);
+        assertThat(histogram.getStats().getMaxMicros()).isEqualTo(micros[LATENCIES - 1]);
+    }
+
+    /**
+     * Empty histogram MUST report zero latencies.
+     */
+    @Test
+    public void percentiles_EmptyHistogram() {
+        LatencyStats stats = new LatencyHistogram().getStats();
+        assertThat(stats.getCount()).isEqualTo(0L);
+        assertThat(stats.getP99Micros()).isEqualTo(0L);
+        assertThat(stats.getMaxMicros()).isEqualTo(0L);
+    }
+}
@@ -0,0 +1,156 @@
+package me.akrasenkov.transfer.provider.impl;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.id.IdGenerator;
+import me.akrasenkov.transfer.id.impl.RandomUuidIdGenerator;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests suite for {@link AccountStateProviderImpl}.
+ */
+public class AccountStateProviderImplTest {
+
+    private static final int THREADS = 4;
+    private static final int WARMUP_ACCOUNTS = 20_000;
+    private static final int MEASURED_ACCOUNTS = 50_000;
+
+    /**
+     * Account saved without a balance MUST be stored with a zero balance, so it is counted by statistics as is.
+     */
+    @Test
+    public void saveAccountState_WithoutBalanceStoredEmpty() throws Exception {
+        InMemoryAccountStateStorage storage = new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0));
+        AccountStateProviderImpl provider =
+                new AccountStateProviderImpl(storage, new IssuedFunds(), MoreExecutors.directExecutor());
+
+        AccountState saved = provider.saveAccountState(AccountState.builder().blocked(false).build());
+
+        assertThat(saved.getBalance()).isEqualTo(BigDecimal.ZERO);
+        assertThat(storage.getAccountStateById(saved.getAccountId()).get().getBalance()).isEqualTo(BigDecimal.ZERO);
+    }
+
+    /**
+     * Asynchronous calls beyond the provider executor queue MUST fail at once with executor name,
+     * so APIs answer them as overloaded instead of queueing them without bound.
+     */
+    @Test
+    public void asyncCalls_BeyondQueueRejected() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(AppModule.PROVIDER_THREADS, "1");
+        properties.setProperty(AppModule.PROVIDER_QUEUE, "1");
+        Injector injector = Guice.createInjector(new AppModule(properties));
+        Executor executor = injector.getInstance(Key.get(Executor.class, Names.named(AppModule.PROVIDER_EXECUTOR)));
+        AccountStateProviderImpl provider = injector.getInstance(AccountStateProviderImpl.class);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // One call takes the only thread and another one the only queue slot
+            executor.execute(() -> {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            });
+            started.await();
+            CompletableFuture<AccountState> queued = provider.saveAccountStateAsync(AccountState.builder().build());
+
+            CompletableFuture<AccountState> rejected = provider.saveAccountStateAsync(AccountState.builder().build());
+            ExecutionException overloaded = assertThrows(ExecutionException.class, rejected::get);
+            assertThat(overloaded.getCause()).isInstanceOf(RejectedExecutionException.class);
+            assertThat(overloaded.getCause().getMessage()).isEqualTo("provider");
+
+            release.countDown();
+            assertThat(queued.get().getBalance()).isEqualTo(BigDecimal.ZERO);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Accounts created with time-ordered IDs MUST be created faster than with random UUIDs,
+     * as time-ordered IDs need neither secure random nor any shared state.
+     */
+    @Test
+    @Tag("benchmark")
+    public void saveAccountState_TimeOrderedIdsFasterThanRandomUuids() throws Exception {
+        // Each generator is measured twice in turns, so the better run of each is not hurt by warm up order
+        long timeOrderedPerSecond = 0;
+        long randomUuidPerSecond = 0;
+        for (int round = 0; round < 2; round++) {
+            timeOrderedPerSecond = Math.max(timeOrderedPerSecond,
+                    accountsPerSecond(new TimeOrderedIdGenerator(0)));
+            randomUuidPerSecond = Math.max(randomUuidPerSecond,
+                    accountsPerSecond(new RandomUuidIdGenerator()));
+        }
+        assertWithMessage("accounts created per second: time-ordered IDs %s, random UUIDs %s",
+                timeOrderedPerSecond, randomUuidPerSecond)
+                .that(timeOrderedPerSecond).isGreaterThan(randomUuidPerSecond);
+    }
+
+    private static long accountsPerSecond(IdGenerator idGenerator) throws Exception {
+        InMemoryAccountStateStorage storage = new InMemoryAccountStateStorage(idGenerator);
+        AccountStateProviderImpl provider =
+                new AccountStateProviderImpl(storage, new IssuedFunds(), MoreExecutors.directExecutor());
+        AccountState state = AccountState.builder()
+                .balance(BigDecimal.ONE)
+                .blocked(false)
+                .build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            createAccounts(executor, provider, state, WARMUP_ACCOUNTS);
+            long start = System.nanoTime();
+            createAccounts(executor, provider, state, MEASURED_ACCOUNTS);
+            long elapsed = System.nanoTime() - start;
+
+            assertThat(storage.collectAccounts(Collectors.counting()))
+                    .isEqualTo((long) WARMUP_ACCOUNTS + MEASURED_ACCOUNTS);
+            return MEASURED_ACCOUNTS * 1_000_000_000L / elapsed;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void createAccounts(ExecutorService executor, AccountStateProviderImpl provider,
+                                       AccountState state, int count) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < count / THREADS; j++) {
+                    provider.saveAccountState(state);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+}
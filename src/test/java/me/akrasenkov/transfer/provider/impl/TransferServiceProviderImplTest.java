@@ -0,0 +1,133 @@
+package me.akrasenkov.transfer.provider.impl;
+
+import me.akrasenkov.transfer.exception.impl.NotEnoughFundsException;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.model.domain.TransferResult;
+import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.Callable;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests suite for {@link TransferServiceProviderImpl}.
+ */
+public class TransferServiceProviderImplTest {
+
+    private static final int WARMUP_TRANSFERS = 50_000;
+    private static final int MEASURED_TRANSFERS = 100_000;
+    /**
+     * Stack depth transfers are measured at, close to the one of a request handled by Jetty and Spark.
+     */
+    private static final int STACK_DEPTH = 100;
+
+    /**
+     * Transfer beyond the sender balance MUST be returned as a typed rejection, leaving balances as they are,
+     * and MUST be thrown by the exception API as a stackless exception.
+     */
+    @Test
+    public void rejectedTransfer_TypedAndStackless() throws Exception {
+        TransferServiceProviderImpl provider = createProvider();
+        Transfer rejected = Transfer.builder()
+                .senderId("sender")
+                .receiverId("receiver")
+                .amount(BigDecimal.TEN)
+                .build();
+
+        TransferResult result = provider.tryPerformTransfer(rejected);
+        assertThat(result.isRejected()).isTrue();
+        assertThat(result.getRejection()).isEqualTo(TransferRejection.notEnoughFunds(BigDecimal.TEN, BigDecimal.ONE));
+
+        NotEnoughFundsException exception = assertThrows(NotEnoughFundsException.class,
+                () -> provider.performTransfer(rejected));
+        assertThat(exception.getStackTrace()).isEmpty();
+
+        assertThat(provider.tryPerformTransfer(Transfer.builder()
+                .senderId("sender")
+                .receiverId("receiver")
+                .amount(BigDecimal.ONE)
+                .build()).isRejected()).isFalse();
+    }
+
+    /**
+     * Transfers rejected with typed results, as the REST API performs them, MUST cost about the same
+     * as successful ones, so a high rejection rate does not slow the service down.
+     */
+    @Test
+    @Tag("benchmark")
+    public void rejectedTransfers_CostAboutSameAsSuccessfulOnes() throws Exception {
+        TransferServiceProviderImpl provider = createProvider();
+        Transfer successful = Transfer.builder()
+                .senderId("rich")
+                .receiverId("receiver")
+                .amount(BigDecimal.ONE)
+                .build();
+        Transfer rejected = Transfer.builder()
+                .senderId("sender")
+                .receiverId("receiver")
+                .amount(BigDecimal.TEN)
+                .build();
+
+        Callable<Object> success = () -> provider.tryPerformTransfer(successful).getReceipt();
+        Callable<Object> rejection = () -> provider.tryPerformTransfer(rejected).getRejection();
+
+        // Each path is measured twice in turns, so the better run of each is not hurt by warm up order
+        long successNanos = Long.MAX_VALUE;
+        long rejectionNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 2; round++) {
+            successNanos = Math.min(successNanos, nanosPerTransfer(success));
+            rejectionNanos = Math.min(rejectionNanos, nanosPerTransfer(rejection));
+        }
+
+        assertWithMessage("nanos per transfer: successful %s, rejected %s", successNanos, rejectionNanos)
+                .that(rejectionNanos).isAtMost(successNanos * 2);
+    }
+
+    private static long nanosPerTransfer(Callable<Object> transfer) throws Exception {
+        atDepth(STACK_DEPTH, () -> repeat(transfer, WARMUP_TRANSFERS));
+        return atDepth(STACK_DEPTH, () -> {
+            long start = System.nanoTime();
+            repeat(transfer, MEASURED_TRANSFERS);
+            return (System.nanoTime() - start) / MEASURED_TRANSFERS;
+        });
+    }
+
+    private static Object repeat(Callable<Object> transfer, int times) throws Exception {
+        for (int i = 0; i < times; i++) {
+            assertThat(transfer.call()).isNotNull();
+        }
+        return null;
+    }
+
+    private static <T> T atDepth(int depth, Callable<T> call) throws Exception {
+        return depth == 0 ? call.call() : atDepth(depth - 1, call);
+    }
+
+    private static TransferServiceProviderImpl createProvider() {
+        InMemoryAccountStateStorage storage = new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0));
+        storage.saveAccountState(AccountState.builder()
+                .accountId("sender")
+                .balance(BigDecimal.ONE)
+                .blocked(false)
+                .build());
+        storage.saveAccountState(AccountState.builder()
+                .accountId("rich")
+                .balance(BigDecimal.valueOf(Long.MAX_VALUE))
+                .blocked(false)
+                .build());
+        storage.saveAccountState(AccountState.builder()
+                .accountId("receiver")
+                .balance(BigDecimal.ZERO)
+                .blocked(false)
+                .build());
+        return new TransferServiceProviderImpl(storage, Runnable::run);
+    }
+}
@@ -0,0 +1,203 @@
+package me.akrasenkov.transfer.recording;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.feed.ChangeFeed;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Unit tests suite for {@link FlightRecorder}.
+ */
+public class FlightRecorderTest {
+
+    private static final long THRESHOLD_MILLIS = 20;
+    private static final int WARMUP_TRANSFERS = 200_000;
+    private static final int MEASURED_TRANSFERS = 1_000_000;
+    private static final int ROUNDS = 3;
+    private static final long MAX_OVERHEAD_NANOS = 500;
+
+    /**
+     * Only transactions lasting at least the threshold MUST be recorded, with their accounts and outcome.
+     */
+    @Test
+    public void slowTransactions_OnlyAreRecorded() throws Exception {
+        InMemoryAccountStateStorage storage = createStorage();
+        try (FlightRecorder recorder = new FlightRecorder(true, THRESHOLD_MILLIS)) {
+            recorder.start();
+            assertThat(storage.transferFunds("first", "second", BigDecimal.ONE)).isNull();
+            assertThat(storage.transferFunds("first", "missing", BigDecimal.ONE))
+                    .isEqualTo(TransferRejection.accountNotFound("missing"));
+            storage.performTransaction(s -> {
+                Uninterruptibles.sleepUninterruptibly(2 * THRESHOLD_MILLIS, TimeUnit.MILLISECONDS);
+                return null;
+            });
+
+            List<RecordedEvent> events = dumpEvents(recorder, "me.akrasenkov.transfer.Transaction");
+            assertThat(events).hasSize(1);
+            RecordedEvent event = events.get(0);
+            assertThat(event.getString("outcome")).isEqualTo(FlightRecorder.COMMITTED);
+            assertThat(event.getString("accountIds")).isNull();
+            assertThat(event.getDuration()).isAtLeast(Duration.ofMillis(2 * THRESHOLD_MILLIS));
+        }
+    }
+
+    /**
+     * Transfers MUST be recorded with both accounts and outcome.
+     */
+    @Test
+    public void transfers_AreRecordedWithAccountsAndOutcome() throws Exception {
+        InMemoryAccountStateStorage storage = createStorage();
+        try (FlightRecorder recorder = new FlightRecorder(true, 0)) {
+            recorder.start();
+            storage.transferFunds("first", "second", BigDecimal.ONE);
+            storage.transferFunds("first", "missing", BigDecimal.ONE);
+
+            List<RecordedEvent> events = dumpEvents(recorder, "me.akrasenkov.transfer.Transaction");
+            assertThat(describe(events))
+                    .containsExactly("first,second TRANSFERRED", "first,missing ACCOUNT_NOT_FOUND")
+                    .inOrder();
+            assertThat(dumpEvents(recorder, "me.akrasenkov.transfer.TransactionWait")).hasSize(2);
+        }
+    }
+
+    /**
+     * Transfers through the storage chain of the app MUST be recorded once each, with accounts and outcome,
+     * whether they are published to change feed subscribers or not, and whether accounts are cached or not.
+     */
+    @Test
+    public void transfersThroughAppStorage_RecordedOnceWithAccountsAndOutcome() throws Exception {
+        for (String cacheSize : new String[]{"0", "16"}) {
+            Properties properties = new Properties();
+            properties.setProperty(AppModule.CACHE_SIZE, cacheSize);
+            Injector injector = Guice.createInjector(new AppModule(properties));
+            AccountStateStorage storage = injector.getInstance(AccountStateStorage.class);
+            ChangeFeed changeFeed = injector.getInstance(ChangeFeed.class);
+            storage.saveAccountState(AccountState.builder()
+                    .accountId("first").balance(BigDecimal.TEN).build());
+            storage.saveAccountState(AccountState.builder()
+                    .accountId("second").balance(BigDecimal.TEN).build());
+
+            try (FlightRecorder recorder = new FlightRecorder(true, 0)) {
+                recorder.start();
+                storage.transferFunds("first", "second", BigDecimal.ONE);
+                storage.transferFunds("first", "missing", BigDecimal.ONE);
+                changeFeed.subscribe();
+                try {
+                    storage.transferFunds("first", "second", BigDecimal.ONE);
+                    storage.transferFunds("second", "first", new BigDecimal("100"));
+                    storage.transferFunds(MultiTransfer.builder()
+                            .leg(Transfer.builder().senderId("second").receiverId("first").amount(BigDecimal.ONE)
+                                    .build())
+                            .build());
+                } finally {
+                    changeFeed.unsubscribe();
+                }
+
+                List<String> expected = ImmutableList.of(
+                        "first,second TRANSFERRED",
+                        "first,missing ACCOUNT_NOT_FOUND",
+                        "first,second TRANSFERRED",
+                        "second,first NOT_ENOUGH_FUNDS",
+                        "first,second TRANSFERRED");
+                assertWithMessage("cache size %s", cacheSize)
+                        .that(describe(dumpEvents(recorder, "me.akrasenkov.transfer.Transaction")))
+                        .containsExactlyElementsIn(expected).inOrder();
+                assertWithMessage("cache size %s", cacheSize)
+                        .that(describe(dumpEvents(recorder, "me.akrasenkov.transfer.TransactionWait")))
+                        .containsExactlyElementsIn(expected).inOrder();
+            }
+        }
+    }
+
+    /**
+     * Recording left on with its threshold MUST add no more than a fraction of microsecond to transfers
+     * which are not recorded, a small part of any API request. Transfers in memory are so short that the
+     * timestamps of events are a noticeable part of them, so overhead is checked in absolute terms.
+     * Best of a few rounds is compared, to reduce noise of other work on the machine.
+     */
+    @Test
+    @Tag("benchmark")
+    public void recording_OverheadOfFastTransfers() throws Exception {
+        InMemoryAccountStateStorage storage = createStorage();
+        transfers(storage, WARMUP_TRANSFERS);
+        long offNanos = Long.MAX_VALUE;
+        long onNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            offNanos = Math.min(offNanos, transfers(storage, MEASURED_TRANSFERS));
+            try (FlightRecorder recorder = new FlightRecorder(true, THRESHOLD_MILLIS)) {
+                recorder.start();
+                transfers(storage, WARMUP_TRANSFERS);
+                onNanos = Math.min(onNanos, transfers(storage, MEASURED_TRANSFERS));
+            }
+        }
+        assertWithMessage("recording off %s ns, on %s ns per transfer",
+                offNanos / MEASURED_TRANSFERS, onNanos / MEASURED_TRANSFERS)
+                .that((onNanos - offNanos) / MEASURED_TRANSFERS).isLessThan(MAX_OVERHEAD_NANOS);
+    }
+
+    private static long transfers(InMemoryAccountStateStorage storage, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            TransferRejection rejection = (i & 1) == 0
+                    ? storage.transferFunds("first", "second", BigDecimal.ONE)
+                    : storage.transferFunds("second", "first", BigDecimal.ONE);
+            if (rejection != null) throw new AssertionError(rejection);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static List<RecordedEvent> dumpEvents(FlightRecorder recorder, String eventName) throws Exception {
+        Path file = Files.createTempFile("recording", ".jfr");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                recorder.dump(out);
+            }
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals(eventName))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static List<String> describe(List<RecordedEvent> events) {
+        return events.stream()
+                .map(event -> event.getString("accountIds") + " " + event.getString("outcome"))
+                .collect(Collectors.toList());
+    }
+
+    private static InMemoryAccountStateStorage createStorage() {
+        InMemoryAccountStateStorage storage = new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0));
+        storage.saveAccountState(AccountState.builder()
+                .accountId("first").balance(new BigDecimal("1000000")).build());
+        storage.saveAccountState(AccountState.builder()
+                .accountId("second").balance(new BigDecimal("1000000")).build());
+        return storage;
+    }
+}
@@ -0,0 +1,302 @@
+package me.akrasenkov.transfer.storage;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.exception.impl.AccountNotFoundException;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferResult;
+import me.akrasenkov.transfer.provider.AccountStateProvider;
+import me.akrasenkov.transfer.provider.TransferServiceProvider;
+import me.akrasenkov.transfer.provider.impl.AccountStateProviderImpl;
+import me.akrasenkov.transfer.provider.impl.IssuedFunds;
+import me.akrasenkov.transfer.provider.impl.TransferServiceProviderImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Concurrency stress tests suite for {@link AccountStateStorage} implementations.
+ * Every implementation gets its own subclass providing a fresh storage.
+ * <p>
+ * Worker threads hammer the storage through {@link TransferServiceProviderImpl} and
+ * {@link AccountStateProviderImpl} with random transfers, creations and reads, while invariants are checked:
+ *      - total money is conserved: it changes only by balances of created accounts
+ *      - no balance ever goes negative
+ *      - a transaction never sees a half-applied transfer
+ *      - a full scan never sees a half-applied transfer either, though it runs outside of transactions
+ * <p>
+ * Operations of each thread are derived from the seed printed in failure messages.
+ * Pass it back with {@code -Dstress.seed=<seed>} to replay the same operations
+ * (thread interleaving is still up to the scheduler).
+ */
+public abstract class AccountStateStorageStressTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 20_000;
+    private static final int INITIAL_ACCOUNTS = 64;
+    private static final long MAX_INITIAL_CENTS = 100_000;
+    private static final int MAX_SCANS = 200;
+
+    private AccountStateStorage storage;
+    private TransferServiceProvider transferServiceProvider;
+    private AccountStateProvider accountStateProvider;
+
+    /**
+     * IDs of created accounts. Appended within transactions.
+     */
+    private List<String> accountIds;
+
+    /**
+     * Total money in storage, in cents. Changed within transactions only.
+     */
+    private long expectedTotalCents;
+
+    /**
+     * Create a fresh storage under test.
+     *
+     * @return storage under test
+     */
+    protected abstract AccountStateStorage createStorage();
+
+    @BeforeEach
+    public void setUp() {
+        storage = createStorage();
+        transferServiceProvider = new TransferServiceProviderImpl(storage, MoreExecutors.directExecutor());
+        accountStateProvider = new AccountStateProviderImpl(storage, new IssuedFunds(), MoreExecutors.directExecutor());
+        accountIds = new CopyOnWriteArrayList<>();
+        expectedTotalCents = 0;
+    }
+
+    /**
+     * Random transfers, creations, reads and audits from many threads at once.
+     * Money MUST be conserved, balances MUST stay non-negative, audits MUST never see half-applied transfers.
+     */
+    @Test
+    public void randomOperations_InvariantsHold() throws Exception {
+        long seed = Long.getLong("stress.seed", System.nanoTime());
+        Random setupRandom = new Random(seed);
+        for (int i = 0; i < INITIAL_ACCOUNTS; i++) {
+            createAccount(randomCents(setupRandom, MAX_INITIAL_CENTS));
+        }
+
+        runConcurrently(seed, THREADS, thread -> {
+            Random random = new Random(seed + thread);
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                int operation = random.nextInt(100);
+                if (operation < 70) {
+                    transfer(randomAccount(random), randomAccount(random),
+                            BigDecimal.valueOf(randomCents(random, MAX_INITIAL_CENTS / 10), 2));
+                } else if (operation < 75) {
+                    createAccount(randomCents(random, MAX_INITIAL_CENTS));
+                } else if (operation < 98) {
+                    AccountState state = accountStateProvider.getAccountState(randomAccount(random));
+                    assertWithMessage("negative balance read, seed=%s", seed)
+                            .that(state.getBalance().signum()).isAtLeast(0);
+                } else {
+                    audit(seed);
+                }
+            }
+        });
+
+        audit(seed);
+    }
+
+    /**
+     * Many threads drain one sender at once. Sender MUST never be overdrawn,
+     * exactly as many transfers as the balance allows MUST succeed.
+     */
+    @Test
+    public void concurrentDrain_NoOverdraft() throws Exception {
+        long seed = Long.getLong("stress.seed", System.nanoTime());
+        String sender = createAccount(100_00);
+        String receiver = createAccount(0);
+        AtomicInteger succeeded = new AtomicInteger();
+
+        runConcurrently(seed, THREADS, thread -> {
+            for (int i = 0; i < 50; i++) {
+                if (!transfer(sender, receiver, BigDecimal.ONE).isRejected()) {
+                    succeeded.incrementAndGet();
+                }
+            }
+        });
+
+        assertWithMessage("seed=%s", seed).that(succeeded.get()).isEqualTo(100);
+        assertWithMessage("seed=%s", seed)
+                .that(accountStateProvider.getAccountState(sender).getBalance().signum()).isEqualTo(0);
+        audit(seed);
+    }
+
+    /**
+     * Two threads move money back and forth between two accounts, while an observer reads both
+     * within transactions. Observer MUST always see the same sum: the commit of a transfer is atomic.
+     */
+    @Test
+    public void opposingTransfers_CommitIsAtomic() throws Exception {
+        long seed = Long.getLong("stress.seed", System.nanoTime());
+        String first = createAccount(1_000_00);
+        String second = createAccount(1_000_00);
+        BigDecimal pairTotal = BigDecimal.valueOf(2_000_00, 2);
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        runConcurrently(seed, 3, thread -> {
+            if (thread == 2) {
+                while (running.get()) {
+                    BigDecimal observed = storage.performTransaction(s ->
+                            s.getAccountStateById(first).get().getBalance()
+                                    .add(s.getAccountStateById(second).get().getBalance()));
+                    assertWithMessage("half-applied transfer observed, seed=%s", seed)
+                            .that(observed).isEquivalentAccordingToCompareTo(pairTotal);
+                }
+                return;
+            }
+            Random random = new Random(seed + thread);
+            try {
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    BigDecimal amount = BigDecimal.valueOf(randomCents(random, 100_00), 2);
+                    if (thread == 0) transfer(first, second, amount);
+                    else transfer(second, first, amount);
+                }
+            } finally {
+                running.set(false);
+            }
+        });
+
+        audit(seed);
+    }
+
+    /**
+     * Threads transfer between random accounts, while a scanner collects all accounts over and over.
+     * Every scan MUST see the same total: it reads one consistent state, however transfers interleave with it.
+     */
+    @Test
+    public void scansDuringTransfers_SeeConsistentTotals() throws Exception {
+        long seed = Long.getLong("stress.seed", System.nanoTime());
+        Random setupRandom = new Random(seed);
+        for (int i = 0; i < INITIAL_ACCOUNTS; i++) {
+            createAccount(randomCents(setupRandom, MAX_INITIAL_CENTS));
+        }
+        BigDecimal total = BigDecimal.valueOf(expectedTotalCents, 2);
+        AtomicInteger transferring = new AtomicInteger(THREADS - 1);
+
+        runConcurrently(seed, THREADS, thread -> {
+            if (thread == 0) {
+                for (int scan = 0; scan < MAX_SCANS && transferring.get() > 0; scan++) {
+                    BigDecimal scanned = storage.collectAccounts(Collectors.reducing(
+                            BigDecimal.ZERO, AccountState::getBalance, BigDecimal::add));
+                    assertWithMessage("half-applied transfer scanned, seed=%s", seed)
+                            .that(scanned).isEquivalentAccordingToCompareTo(total);
+                }
+                return;
+            }
+            Random random = new Random(seed + thread);
+            try {
+                for (int i = 0; i < OPERATIONS_PER_THREAD / 4; i++) {
+                    transfer(randomAccount(random), randomAccount(random),
+                            BigDecimal.valueOf(randomCents(random, MAX_INITIAL_CENTS / 10), 2));
+                }
+            } finally {
+                transferring.decrementAndGet();
+            }
+        });
+
+        audit(seed);
+    }
+
+    private TransferResult transfer(String senderId, String receiverId, BigDecimal amount)
+            throws TransferServiceException {
+        return transferServiceProvider.tryPerformTransfer(Transfer.builder()
+                .senderId(senderId)
+                .receiverId(receiverId)
+                .amount(amount)
+                .build());
+    }
+
+    private String createAccount(long balanceCents) throws TransferServiceException {
+        String accountId = storage.generateUniqueId();
+        return storage.performTransaction(s -> {
+            s.saveAccountState(AccountState.builder()
+                    .accountId(accountId)
+                    .balance(BigDecimal.valueOf(balanceCents, 2))
+                    .build());
+            accountIds.add(accountId);
+            expectedTotalCents += balanceCents;
+            return accountId;
+        });
+    }
+
+    /**
+     * Check invariants over all accounts within one transaction.
+     */
+    private void audit(long seed) throws TransferServiceException {
+        storage.performTransaction(s -> {
+            BigDecimal total = BigDecimal.ZERO;
+            for (String accountId : accountIds) {
+                AccountState state = s.getAccountStateById(accountId)
+                        .orElseThrow(() -> new AccountNotFoundException(accountId));
+                assertWithMessage("negative balance of %s, seed=%s", accountId, seed)
+                        .that(state.getBalance().signum()).isAtLeast(0);
+                total = total.add(state.getBalance());
+            }
+            assertWithMessage("money is not conserved, seed=%s", seed)
+                    .that(total).isEquivalentAccordingToCompareTo(BigDecimal.valueOf(expectedTotalCents, 2));
+            return null;
+        });
+    }
+
+    private String randomAccount(Random random) {
+        return accountIds.get(random.nextInt(accountIds.size()));
+    }
+
+    private static long randomCents(Random random, long bound) {
+        return (long) (random.nextDouble() * bound);
+    }
+
+    /**
+     * Run a task in several threads started at once and rethrow the first failure.
+     */
+    private static void runConcurrently(long seed, int threads, ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } catch (Exception e) {
+            throw new AssertionError("stress run failed, seed=" + seed, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,16 @@
+package me.akrasenkov.transfer.storage.impl;
+
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.storage.AccountStateStorageStressTest;
+
+/**
+ * Concurrency stress tests suite for {@link InMemoryAccountStateStorage}.
+ */
+public class InMemoryAccountStateStorageStressTest extends AccountStateStorageStressTest {
+
+    @Override
+    protected AccountStateStorage createStorage() {
+        return new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0));
+    }
+}
@@ -0,0 +1,210 @@
+package me.akrasenkov.transfer.storage.impl;
+
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collector;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests suite for {@link InMemoryAccountStateStorage}.
+ */
+public class InMemoryAccountStateStorageTest {
+
+    private static final int WARMUP_TRANSFERS = 50_000;
+    private static final int MEASURED_TRANSFERS = 100_000;
+
+    /**
+     * Transfer in place MUST allocate no more than the two new balances, and much less than
+     * a transfer made of reads and saves of account states.
+     */
+    @Test
+    @Tag("benchmark")
+    public void transferFunds_AllocatesOnlyNewBalances() throws Exception {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+
+        InMemoryAccountStateStorage inPlace = createStorage();
+        long inPlaceBytes = bytesPerTransfer(threads, inPlace);
+
+        // Delegating storage without its own transfer, so the default one made of reads and saves is used
+        InMemoryAccountStateStorage delegate = createStorage();
+        long readAndSaveBytes = bytesPerTransfer(threads, new AccountStateStorage() {
+            @Override
+            public Optional<AccountState> getAccountStateById(String accountId) {
+                return delegate.getAccountStateById(accountId);
+            }
+
+            @Override
+            public Map<String, AccountState> getAccountStatesByIds(Collection<String> accountIds) {
+                return delegate.getAccountStatesByIds(accountIds);
+            }
+
+            @Override
+            public <R> R collectAccounts(Collector<? super AccountState, ?, R> collector) {
+                return delegate.collectAccounts(collector);
+            }
+
+            @Override
+            public AccountState saveAccountState(AccountState state) {
+                return delegate.saveAccountState(state);
+            }
+
+            @Override
+            public String generateUniqueId() {
+                return delegate.generateUniqueId();
+            }
+
+            @Override
+            public <T> T performTransaction(Transaction<T> transaction) throws TransferServiceException {
+                return delegate.performTransaction(s -> transaction.apply(this));
+            }
+        });
+
+        // Two BigDecimals of compact values are 40 bytes each with compressed oops
+        assertWithMessage("in place %s bytes, read and save %s bytes", inPlaceBytes, readAndSaveBytes)
+                .that(inPlaceBytes).isAtMost(100L);
+        assertWithMessage("in place %s bytes, read and save %s bytes", inPlaceBytes, readAndSaveBytes)
+                .that(inPlaceBytes).isLessThan(readAndSaveBytes / 2);
+    }
+
+    /**
+     * Rejected transfer MUST leave balances unchanged.
+     */
+    @Test
+    public void transferFunds_RejectedTransferChangesNothing() throws Exception {
+        InMemoryAccountStateStorage storage = createStorage();
+        storage.saveAccountState(account("sender", "10", false));
+        storage.saveAccountState(account("receiver", "0", true));
+
+        assertThat(storage.transferFunds("sender", "receiver", BigDecimal.ONE))
+                .isEqualTo(TransferRejection.accountBlocked("receiver"));
+        assertThat(storage.transferFunds("sender", "missing", BigDecimal.ONE))
+                .isEqualTo(TransferRejection.accountNotFound("missing"));
+        assertThat(storage.getAccountStateById("sender").get()).isEqualTo(account("sender", "10", false));
+        assertThat(storage.getAccountStateById("receiver").get()).isEqualTo(account("receiver", "0", true));
+    }
+
+    /**
+     * Multi-leg transfer MUST apply net changes of accounts, so an account may pass on funds it receives
+     * within the same transfer, and MUST change nothing if any account is rejected.
+     */
+    @Test
+    public void transferFunds_MultiLegAppliesNetChangesAtomically() throws Exception {
+        InMemoryAccountStateStorage storage = createStorage();
+        storage.saveAccountState(account("first", "5", false));
+        storage.saveAccountState(account("second", "3", false));
+        storage.saveAccountState(account("hub", "0", false));
+        storage.saveAccountState(account("receiver", "0", false));
+        storage.saveAccountState(account("blocked", "0", true));
+
+        assertThat(storage.transferFunds(MultiTransfer.builder()
+                .leg(leg("hub", "receiver", "8"))
+                .leg(leg("first", "hub", "5"))
+                .leg(leg("second", "hub", "3"))
+                .leg(leg("receiver", "blocked", "1"))
+                .build()))
+                .isEqualTo(TransferRejection.accountBlocked("blocked"));
+        assertThat(storage.getAccountStateById("hub").get()).isEqualTo(account("hub", "0", false));
+        assertThat(storage.getAccountStateById("first").get()).isEqualTo(account("first", "5", false));
+
+        assertThat(storage.transferFunds(MultiTransfer.builder()
+                .leg(leg("hub", "receiver", "8"))
+                .leg(leg("first", "hub", "5"))
+                .leg(leg("second", "hub", "3"))
+                .build()))
+                .isNull();
+        assertThat(storage.getAccountStateById("first").get()).isEqualTo(account("first", "0", false));
+        assertThat(storage.getAccountStateById("second").get()).isEqualTo(account("second", "0", false));
+        assertThat(storage.getAccountStateById("hub").get()).isEqualTo(account("hub", "0", false));
+        assertThat(storage.getAccountStateById("receiver").get()).isEqualTo(account("receiver", "8", false));
+    }
+
+    /**
+     * Multi-leg transfer MUST check funds of debited accounts only, so an account in debt can be credited.
+     */
+    @Test
+    public void transferFunds_MultiLegCreditsAccountInDebt() throws Exception {
+        InMemoryAccountStateStorage storage = createStorage();
+        storage.saveAccountState(account("payer", "10", false));
+        storage.saveAccountState(account("debtor", "-5", false));
+
+        assertThat(storage.transferFunds(MultiTransfer.builder()
+                .leg(leg("payer", "debtor", "3"))
+                .build()))
+                .isNull();
+        assertThat(storage.getAccountStateById("payer").get()).isEqualTo(account("payer", "7", false));
+        assertThat(storage.getAccountStateById("debtor").get()).isEqualTo(account("debtor", "-2", false));
+
+        assertThat(storage.transferFunds(MultiTransfer.builder()
+                .leg(leg("debtor", "payer", "1"))
+                .build()))
+                .isEqualTo(TransferRejection.notEnoughFunds(BigDecimal.ONE, new BigDecimal("-2")));
+    }
+
+    private static long bytesPerTransfer(com.sun.management.ThreadMXBean threads, AccountStateStorage storage)
+            throws TransferServiceException {
+        storage.saveAccountState(account("first", "1000000", false));
+        storage.saveAccountState(account("second", "1000000", false));
+        BigDecimal amount = BigDecimal.ONE;
+        for (int i = 0; i < WARMUP_TRANSFERS; i++) {
+            transferBackAndForth(storage, amount, i);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_TRANSFERS; i++) {
+            transferBackAndForth(storage, amount, i);
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_TRANSFERS;
+    }
+
+    private static void transferBackAndForth(AccountStateStorage storage, BigDecimal amount, int i)
+            throws TransferServiceException {
+        TransferRejection rejection = (i & 1) == 0
+                ? storage.transferFunds("first", "second", amount)
+                : storage.transferFunds("second", "first", amount);
+        if (rejection != null) throw new AssertionError(rejection);
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
+    private static InMemoryAccountStateStorage createStorage() {
+        return new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0));
+    }
+
+    private static Transfer leg(String senderId, String receiverId, String amount) {
+        return Transfer.builder()
+                .senderId(senderId)
+                .receiverId(receiverId)
+                .amount(new BigDecimal(amount))
+                .build();
+    }
+
+    private static AccountState account(String accountId, String balance, boolean blocked) {
+        return AccountState.builder()
+                .accountId(accountId)
+                .balance(new BigDecimal(balance))
+                .blocked(blocked)
+                .build();
+    }
+}
@@ -0,0 +1,18 @@
+package me.akrasenkov.transfer.storage.impl.cache;
+
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.storage.AccountStateStorageStressTest;
+import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+
+/**
+ * Concurrency stress tests suite for {@link CachingAccountStateStorage}.
+ * Cache is much smaller than the number of accounts, so evictions and reloads run all along the stress run.
+ */
+public class CachingAccountStateStorageStressTest extends AccountStateStorageStressTest {
+
+    @Override
+    protected AccountStateStorage createStorage() {
+        return new CachingAccountStateStorage(new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0)), 32);
+    }
+}
@@ -0,0 +1,303 @@
+package me.akrasenkov.transfer.storage.impl.cache;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.MultiTransfer;
+import me.akrasenkov.transfer.model.domain.Transfer;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collector;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests suite for {@link CachingAccountStateStorage}.
+ */
+public class CachingAccountStateStorageTest {
+
+    private static final int CACHE_SIZE = 100;
+
+    private AccountStateStorage backingStorage;
+    private CachingAccountStateStorage storage;
+
+    @BeforeEach
+    public void setUp() {
+        backingStorage = new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0));
+        storage = new CachingAccountStateStorage(backingStorage, CACHE_SIZE);
+    }
+
+    /**
+     * Cache MUST stay within its size, and MUST serve evicted accounts from the backing storage.
+     */
+    @Test
+    public void evictedAccounts_LoadedOnMiss() {
+        for (int i = 0; i < CACHE_SIZE * 10; i++) {
+            storage.saveAccountState(account(i, "1"));
+        }
+        CacheStats stats = storage.getStats();
+        assertThat(stats.getSize()).isAtMost(CACHE_SIZE);
+        assertThat(stats.getEvictionCount()).isEqualTo(CACHE_SIZE * 10 - stats.getSize());
+
+        for (int i = 0; i < CACHE_SIZE * 10; i++) {
+            assertThat(storage.getAccountStateById(id(i)).get()).isEqualTo(account(i, "1"));
+        }
+        assertThat(storage.getAccountStateById("missing").isPresent()).isFalse();
+    }
+
+    /**
+     * Frequently used accounts MUST survive a scan over many cold accounts.
+     */
+    @Test
+    public void scanOverColdAccounts_HotAccountsStayCached() {
+        int hotAccounts = CACHE_SIZE / 2;
+        for (int i = 0; i < CACHE_SIZE * 20; i++) {
+            backingStorage.saveAccountState(account(i, "1"));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < hotAccounts; i++) {
+                storage.getAccountStateById(id(i));
+            }
+        }
+        for (int i = hotAccounts; i < CACHE_SIZE * 20; i++) {
+            storage.getAccountStateById(id(i));
+        }
+
+        long missesBefore = storage.getStats().getMissCount();
+        for (int i = 0; i < hotAccounts; i++) {
+            storage.getAccountStateById(id(i));
+        }
+        // Plain LRU would miss every hot account here. Only the one which never left the window
+        // before the scan competes with cold accounts for admission, so it may be lost.
+        assertThat(storage.getStats().getMissCount()).isAtMost(missesBefore + 1);
+    }
+
+    /**
+     * Cached account MUST reflect writes made within transactions.
+     */
+    @Test
+    public void transactionWrites_UpdateCachedAccounts() throws Exception {
+        storage.saveAccountState(account(1, "1"));
+        storage.getAccountStateById(id(1));
+
+        storage.performTransaction(s -> s.saveAccountState(account(1, "2")));
+
+        assertThat(storage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "2"));
+        assertThat(backingStorage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "2"));
+        assertThat(storage.getStats().getHitCount()).isEqualTo(2);
+    }
+
+    /**
+     * Writes of a transaction MUST reach the cache only once it completes. Accounts written by a failed
+     * transaction MUST be evicted, so they are loaded as the backing storage kept them.
+     */
+    @Test
+    public void failedTransaction_WrittenAccountsEvicted() {
+        storage.saveAccountState(account(1, "1"));
+        storage.saveAccountState(account(2, "1"));
+
+        assertThrows(IllegalStateException.class, () -> storage.performTransaction(s -> {
+            s.saveAccountState(account(1, "2"));
+            assertThat(s.getAccountStateById(id(1)).get()).isEqualTo(account(1, "2"));
+            assertThat(CompletableFuture.supplyAsync(() -> storage.getAccountStateById(id(1)).get()).join())
+                    .isEqualTo(account(1, "1"));
+            throw new IllegalStateException();
+        }));
+
+        long missesBefore = storage.getStats().getMissCount();
+        assertThat(storage.getAccountStateById(id(1)).get())
+                .isEqualTo(backingStorage.getAccountStateById(id(1)).get());
+        assertThat(storage.getAccountStateById(id(2)).get()).isEqualTo(account(2, "1"));
+        assertThat(storage.getStats().getMissCount()).isEqualTo(missesBefore + 1);
+    }
+
+    /**
+     * Transfers between cached accounts MUST not read the backing storage, and MUST update it and the cache.
+     */
+    @Test
+    public void transfersBetweenCachedAccounts_NoBackingReads() throws Exception {
+        PausingStorage pausingStorage = new PausingStorage(backingStorage);
+        storage = new CachingAccountStateStorage(pausingStorage, CACHE_SIZE);
+        storage.saveAccountState(account(1, "100"));
+        storage.saveAccountState(account(2, "100"));
+        storage.saveAccountState(account(3, "100"));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(storage.transferFunds(id(1), id(2), BigDecimal.ONE)).isNull();
+        }
+        assertThat(storage.transferFunds(MultiTransfer.builder()
+                .leg(transfer(id(2), id(3), "5"))
+                .leg(transfer(id(1), id(3), "5"))
+                .build())).isNull();
+
+        assertThat(pausingStorage.reads.get()).isEqualTo(0);
+        assertThat(storage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "85"));
+        assertThat(backingStorage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "85"));
+        assertThat(backingStorage.getAccountStateById(id(2)).get()).isEqualTo(account(2, "105"));
+        assertThat(backingStorage.getAccountStateById(id(3)).get()).isEqualTo(account(3, "110"));
+    }
+
+    /**
+     * Multi-leg transfer through cache MUST check funds of debited accounts only, so an account in debt
+     * can be credited.
+     */
+    @Test
+    public void multiLegTransfer_CreditsAccountInDebt() throws Exception {
+        storage.saveAccountState(account(1, "10"));
+        storage.saveAccountState(account(2, "-5"));
+
+        assertThat(storage.transferFunds(MultiTransfer.builder()
+                .leg(transfer(id(1), id(2), "3"))
+                .build())).isNull();
+        assertThat(storage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "7"));
+        assertThat(backingStorage.getAccountStateById(id(2)).get()).isEqualTo(account(2, "-2"));
+
+        assertThat(storage.transferFunds(MultiTransfer.builder()
+                .leg(transfer(id(2), id(1), "1"))
+                .build())).isEqualTo(TransferRejection.notEnoughFunds(BigDecimal.ONE, new BigDecimal("-2")));
+    }
+
+    /**
+     * Account loaded on miss MUST be cached despite writes of other accounts made while it was loaded,
+     * and MUST not replace a write of the same account made while it was loaded.
+     */
+    @Test
+    public void missLoadOverlappingWrites_CachedUnlessSameAccountWritten() throws Exception {
+        PausingStorage pausingStorage = new PausingStorage(backingStorage);
+        storage = new CachingAccountStateStorage(pausingStorage, CACHE_SIZE);
+        backingStorage.saveAccountState(account(1, "1"));
+        backingStorage.saveAccountState(account(2, "1"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Writes of other accounts while account is loaded
+            Future<Optional<AccountState>> load = pausingStorage.pauseLoad(id(1), executor, storage);
+            for (int i = 3; i < CACHE_SIZE / 2; i++) {
+                storage.saveAccountState(account(i, "1"));
+            }
+            pausingStorage.resume();
+            assertThat(load.get().get()).isEqualTo(account(1, "1"));
+            long hitsBefore = storage.getStats().getHitCount();
+            assertThat(storage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "1"));
+            assertThat(storage.getStats().getHitCount()).isEqualTo(hitsBefore + 1);
+
+            // Write of the same account while it is loaded, and its eviction by frequently used accounts
+            load = pausingStorage.pauseLoad(id(2), executor, storage);
+            storage.saveAccountState(account(2, "2"));
+            for (int i = CACHE_SIZE; i < CACHE_SIZE * 3; i++) {
+                storage.saveAccountState(account(i, "1"));
+                storage.getAccountStateById(id(i));
+                storage.getAccountStateById(id(i));
+            }
+            pausingStorage.resume();
+            assertThat(load.get().get()).isEqualTo(account(2, "1"));
+            assertThat(storage.getAccountStateById(id(2)).get()).isEqualTo(account(2, "2"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static AccountState account(int i, String balance) {
+        return AccountState.builder()
+                .accountId(id(i))
+                .balance(new BigDecimal(balance))
+                .build();
+    }
+
+    private static Transfer transfer(String senderId, String receiverId, String amount) {
+        return Transfer.builder()
+                .senderId(senderId)
+                .receiverId(receiverId)
+                .amount(new BigDecimal(amount))
+                .build();
+    }
+
+    private static String id(int i) {
+        return "account-" + i;
+    }
+
+    /**
+     * Storage which counts reads of accounts, and pauses a chosen read before it is returned to the cache.
+     */
+    private static final class PausingStorage implements AccountStateStorage {
+
+        private final AccountStateStorage storage;
+        private final AtomicInteger reads = new AtomicInteger();
+        private volatile String pausedId;
+        private volatile CountDownLatch paused;
+        private volatile CountDownLatch resumed;
+
+        private PausingStorage(AccountStateStorage storage) {
+            this.storage = storage;
+        }
+
+        /**
+         * Load an account through cache on executor, and wait until its load is paused.
+         */
+        private Future<Optional<AccountState>> pauseLoad(String accountId, ExecutorService executor,
+                                                         AccountStateStorage cache) throws InterruptedException {
+            paused = new CountDownLatch(1);
+            resumed = new CountDownLatch(1);
+            pausedId = accountId;
+            Future<Optional<AccountState>> load = executor.submit(() -> cache.getAccountStateById(accountId));
+            paused.await();
+            return load;
+        }
+
+        private void resume() {
+            resumed.countDown();
+        }
+
+        @Override
+        public Optional<AccountState> getAccountStateById(String accountId) {
+            reads.incrementAndGet();
+            Optional<AccountState> state = storage.getAccountStateById(accountId);
+            if (accountId.equals(pausedId)) {
+                pausedId = null;
+                paused.countDown();
+                Uninterruptibles.awaitUninterruptibly(resumed);
+            }
+            return state;
+        }
+
+        @Override
+        public Map<String, AccountState> getAccountStatesByIds(Collection<String> accountIds) {
+            return storage.getAccountStatesByIds(accountIds);
+        }
+
+        @Override
+        public <R> R collectAccounts(Collector<? super AccountState, ?, R> collector) {
+            return storage.collectAccounts(collector);
+        }
+
+        @Override
+        public AccountState saveAccountState(AccountState state) {
+            return storage.saveAccountState(state);
+        }
+
+        @Override
+        public String generateUniqueId() {
+            return storage.generateUniqueId();
+        }
+
+        @Override
+        public <T> T performTransaction(Transaction<T> transaction) throws TransferServiceException {
+            return storage.performTransaction(transaction);
+        }
+    }
+}
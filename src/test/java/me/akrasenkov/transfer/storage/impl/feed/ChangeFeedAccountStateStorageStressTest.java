@@ -0,0 +1,23 @@
+package me.akrasenkov.transfer.storage.impl.feed;
+
+import me.akrasenkov.transfer.feed.ChangeFeed;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.storage.AccountStateStorageStressTest;
+import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+
+/**
+ * Concurrency stress tests suite for {@link ChangeFeedAccountStateStorage}.
+ * Feed is small, so it wraps around all along the stress run.
+ */
+public class ChangeFeedAccountStateStorageStressTest extends AccountStateStorageStressTest {
+
+    @Override
+    protected AccountStateStorage createStorage() {
+        // Feed has a subscriber, so changes are published rather than skipped
+        ChangeFeed changeFeed = new ChangeFeed(64);
+        changeFeed.subscribe();
+        return new ChangeFeedAccountStateStorage(
+                new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0)), changeFeed);
+    }
+}
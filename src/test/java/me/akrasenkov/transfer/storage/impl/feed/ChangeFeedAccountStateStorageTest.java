@@ -0,0 +1,156 @@
+package me.akrasenkov.transfer.storage.impl.feed;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.feed.ChangeFeed;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.ChangeEvent;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests suite for {@link ChangeFeedAccountStateStorage}, over the storage chain the app is configured with.
+ */
+public class ChangeFeedAccountStateStorageTest {
+
+    private static final int WARMUP_TRANSFERS = 50_000;
+    private static final int MEASURED_TRANSFERS = 100_000;
+
+    private AccountStateStorage backingStorage;
+    private AccountStateStorage storage;
+    private ChangeFeed changeFeed;
+
+    @BeforeEach
+    public void setUp() {
+        Injector injector = Guice.createInjector(new AppModule());
+        backingStorage = injector.getInstance(
+                Key.get(AccountStateStorage.class, Names.named(AppModule.BACKING_STORAGE)));
+        storage = injector.getInstance(AccountStateStorage.class);
+        changeFeed = injector.getInstance(ChangeFeed.class);
+        assertThat(storage).isInstanceOf(ChangeFeedAccountStateStorage.class);
+        storage.saveAccountState(account("first", "1000000"));
+        storage.saveAccountState(account("second", "1000000"));
+    }
+
+    /**
+     * Transfer without feed subscribers MUST allocate no more than a transfer made by the backing storage alone,
+     * and much less than a transfer published to subscribers.
+     */
+    @Test
+    @Tag("benchmark")
+    public void transfersWithoutSubscribers_AllocateAsBackingStorage() throws Exception {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        long backingBytes = bytesPerTransfer(threads, backingStorage);
+        long skippedBytes = bytesPerTransfer(threads, storage);
+
+        changeFeed.subscribe();
+        long publishedBytes = bytesPerTransfer(threads, storage);
+        changeFeed.unsubscribe();
+
+        String message = String.format("bytes per transfer: backing storage %s, without subscribers %s, "
+                + "with subscriber %s", backingBytes, skippedBytes, publishedBytes);
+        // Slack of a small object, as compilation going on in background allocates on the measured thread too
+        assertWithMessage(message).that(skippedBytes).isAtMost(backingBytes + 16);
+        assertWithMessage(message).that(skippedBytes * 2).isLessThan(publishedBytes);
+    }
+
+    /**
+     * Transfer MUST be published to subscribers with committed states of both accounts,
+     * and MUST be skipped without subscribers, so consumers coming later get a gap.
+     */
+    @Test
+    public void transfers_PublishedOnlyWithSubscribers() throws Exception {
+        long start = changeFeed.getLastSequence();
+        assertThat(storage.transferFunds("first", "second", BigDecimal.ONE)).isNull();
+        assertThat(changeFeed.getLastSequence()).isEqualTo(start + 2);
+
+        changeFeed.subscribe();
+        try {
+            assertThat(storage.transferFunds("first", "second", BigDecimal.ONE)).isNull();
+            assertThat(storage.transferFunds("first", "missing", BigDecimal.ONE)).isNotNull();
+            assertThat(changeFeed.poll(start, 100, 0, TimeUnit.MILLISECONDS))
+                    .containsExactly(ChangeEvent.gap(start + 2));
+            List<ChangeEvent> events = changeFeed.poll(start + 2, 100, 0, TimeUnit.MILLISECONDS);
+            assertThat(events).containsExactly(
+                    ChangeEvent.change(start + 3, account("first", "999998")),
+                    ChangeEvent.change(start + 4, account("second", "1000002"))).inOrder();
+        } finally {
+            changeFeed.unsubscribe();
+        }
+    }
+
+    /**
+     * Writes of a failed transaction MUST not be published, but skipped, so subscribers get a gap
+     * and re-read those accounts.
+     */
+    @Test
+    public void failedTransaction_SkippedAsGap() throws Exception {
+        changeFeed.subscribe();
+        try {
+            long start = changeFeed.getLastSequence();
+            assertThrows(IllegalStateException.class, () -> storage.performTransaction(s -> {
+                s.saveAccountState(account("first", "0"));
+                throw new IllegalStateException();
+            }));
+            assertThat(changeFeed.poll(start, 100, 0, TimeUnit.MILLISECONDS))
+                    .containsExactly(ChangeEvent.gap(start + 1));
+        } finally {
+            changeFeed.unsubscribe();
+        }
+    }
+
+    private static long bytesPerTransfer(com.sun.management.ThreadMXBean threads, AccountStateStorage storage)
+            throws TransferServiceException {
+        BigDecimal amount = BigDecimal.ONE;
+        for (int i = 0; i < WARMUP_TRANSFERS; i++) {
+            transferBackAndForth(storage, amount, i);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_TRANSFERS; i++) {
+            transferBackAndForth(storage, amount, i);
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_TRANSFERS;
+    }
+
+    private static void transferBackAndForth(AccountStateStorage storage, BigDecimal amount, int i)
+            throws TransferServiceException {
+        TransferRejection rejection = (i & 1) == 0
+                ? storage.transferFunds("first", "second", amount)
+                : storage.transferFunds("second", "first", amount);
+        if (rejection != null) throw new AssertionError(rejection);
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
+    private static AccountState account(String accountId, String balance) {
+        return AccountState.builder()
+                .accountId(accountId)
+                .balance(new BigDecimal(balance))
+                .blocked(false)
+                .build();
+    }
+}
@@ -0,0 +1,35 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.storage.AccountStateStorageStressTest;
+import org.junit.jupiter.api.AfterEach;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+
+/**
+ * Concurrency stress tests suite for {@link LsmAccountStateStorage}.
+ * Memtable is tiny, so flushes and compactions run all along the stress run.
+ */
+public class LsmAccountStateStorageStressTest extends AccountStateStorageStressTest {
+
+    private LsmAccountStateStorage storage;
+
+    @Override
+    protected AccountStateStorage createStorage() {
+        try {
+            storage = new LsmAccountStateStorage(new TimeOrderedIdGenerator(0),
+                    Files.createTempDirectory("lsm-stress").toString(), 512, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return storage;
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        storage.close();
+    }
+}
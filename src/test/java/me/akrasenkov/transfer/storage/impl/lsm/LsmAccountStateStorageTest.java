@@ -0,0 +1,419 @@
+package me.akrasenkov.transfer.storage.impl.lsm;
+
+import com.google.common.base.Strings;
+import me.akrasenkov.transfer.exception.TransferServiceException;
+import me.akrasenkov.transfer.id.impl.TimeOrderedIdGenerator;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.TransferRejection;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import me.akrasenkov.transfer.storage.impl.InMemoryAccountStateStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests suite for {@link LsmAccountStateStorage}.
+ */
+public class LsmAccountStateStorageTest {
+
+    private static final int MEMTABLE_SIZE = 100;
+    private static final int ACCOUNTS = 2_000;
+    private static final int BENCHMARK_MEMTABLE_SIZE = 10_000;
+    private static final int BENCHMARK_ACCOUNTS = 100_000;
+    private static final int BENCHMARK_OPERATIONS = 100_000;
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("lsm");
+    }
+
+    /**
+     * Accounts written across many flushes and compactions MUST be found with their latest state,
+     * absent accounts MUST not be found.
+     */
+    @Test
+    public void lookups_AfterFlushesAndCompactions() throws Exception {
+        try (LsmAccountStateStorage storage = openStorage()) {
+            writeAccounts(storage, "1");
+            writeAccounts(storage, "2");
+            awaitBackground(storage);
+            // Forty flushed memtables leave at most three segments in each of three size tiers
+            assertThat(segmentFiles()).isAtMost(9L);
+            assertAccounts(storage, "2");
+            assertThat(storage.getAccountStateById("missing").isPresent()).isFalse();
+        }
+    }
+
+    /**
+     * Bulk lookup over accounts spread across memtables and segments MUST return
+     * the latest state of every found account in order of IDs, and skip absent ones.
+     */
+    @Test
+    public void bulkLookup_AcrossTables() throws Exception {
+        try (LsmAccountStateStorage storage = openStorage()) {
+            writeAccounts(storage, "1");
+            for (int i = 0; i < ACCOUNTS; i += 3) {
+                storage.saveAccountState(account(i, "2", false));
+            }
+            List<String> ids = new ArrayList<>();
+            for (int i = ACCOUNTS - 1; i >= 0; i -= 2) {
+                ids.add(id(i));
+            }
+            ids.add("missing");
+
+            Map<String, AccountState> states = storage.getAccountStatesByIds(ids);
+            assertThat(states.keySet()).containsExactlyElementsIn(ids.subList(0, ids.size() - 1)).inOrder();
+            for (int i = ACCOUNTS - 1; i >= 0; i -= 2) {
+                assertThat(states.get(id(i))).isEqualTo(account(i, i % 3 == 0 ? "2" : "1", false));
+            }
+        }
+    }
+
+    /**
+     * Full scan over accounts spread across memtables and segments MUST see every account once,
+     * with its latest state, including writes still in the memtable.
+     */
+    @Test
+    public void collectAccounts_AcrossTables() throws Exception {
+        try (LsmAccountStateStorage storage = openStorage()) {
+            writeAccounts(storage, "1");
+            for (int i = 0; i < ACCOUNTS; i += 3) {
+                storage.saveAccountState(account(i, "2", i % 2 == 0));
+            }
+
+            Map<String, AccountState> states = storage.collectAccounts(
+                    Collectors.toMap(AccountState::getAccountId, state -> state));
+            assertThat(states).hasSize(ACCOUNTS);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                assertThat(states.get(id(i))).isEqualTo(i % 3 == 0 ? account(i, "2", i % 2 == 0)
+                        : account(i, "1", false));
+            }
+        }
+    }
+
+    /**
+     * Full scan MUST see accounts as of its start, while writes made during the scan go on,
+     * and MUST not rotate the memtable.
+     */
+    @Test
+    public void collectAccounts_SnapshotWhileWriting() throws Exception {
+        try (LsmAccountStateStorage storage = openStorage()) {
+            writeAccounts(storage, "1");
+            // Memtable is empty after the last full one, so these stay in the memtable only
+            for (int i = ACCOUNTS - 100; i < ACCOUNTS; i += 2) {
+                storage.saveAccountState(account(i, "2", false));
+            }
+            awaitBackground(storage);
+            // Every memtable has its own log, so the same log shows that the memtable was not rotated
+            List<Path> logs = logFiles();
+
+            AtomicBoolean written = new AtomicBoolean();
+            Map<String, AccountState> states = storage.collectAccounts(Collector.of(
+                    HashMap<String, AccountState>::new,
+                    (map, state) -> {
+                        if (written.compareAndSet(false, true)) {
+                            // Replace records in memtable and in segments, and add a new account
+                            storage.saveAccountState(account(ACCOUNTS - 50, "3", false));
+                            storage.saveAccountState(account(ACCOUNTS - 500, "3", false));
+                            storage.saveAccountState(AccountState.from(account(ACCOUNTS - 50, "3", false))
+                                    .accountId(id(ACCOUNTS - 50) + "-new")
+                                    .build());
+                        }
+                        map.put(state.getAccountId(), state);
+                    },
+                    (left, right) -> {
+                        left.putAll(right);
+                        return left;
+                    }));
+
+            assertThat(states).hasSize(ACCOUNTS);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                String balance = i >= ACCOUNTS - 100 && i % 2 == 0 ? "2" : "1";
+                assertThat(states.get(id(i))).isEqualTo(account(i, balance, false));
+            }
+            assertThat(storage.collectAccounts(Collectors.counting())).isEqualTo(ACCOUNTS + 1L);
+            assertThat(storage.getAccountStateById(id(ACCOUNTS - 500)).get())
+                    .isEqualTo(account(ACCOUNTS - 500, "3", false));
+            assertThat(logFiles()).isEqualTo(logs);
+        }
+    }
+
+    /**
+     * Storage reopened from the same directory MUST recover both flushed and only logged writes.
+     */
+    @Test
+    public void reopen_RecoversSegmentsAndLogs() throws Exception {
+        try (LsmAccountStateStorage storage = openStorage()) {
+            writeAccounts(storage, "1");
+            // Update last accounts only, so they stay in memtable and its log
+            storage.saveAccountState(account(ACCOUNTS - 1, "3", true));
+        }
+        try (LsmAccountStateStorage storage = openStorage()) {
+            for (int i = 0; i < ACCOUNTS - 1; i++) {
+                assertThat(storage.getAccountStateById(id(i)).get()).isEqualTo(account(i, "1", false));
+            }
+            assertThat(storage.getAccountStateById(id(ACCOUNTS - 1)).get())
+                    .isEqualTo(account(ACCOUNTS - 1, "3", true));
+        }
+    }
+
+    /**
+     * Compaction MUST merge only segments of similar size, so a large segment is not rewritten
+     * when a memtable is flushed next to it.
+     */
+    @Test
+    public void compaction_MergesSimilarlySizedSegmentsOnly() throws Exception {
+        try (LsmAccountStateStorage storage = openStorage()) {
+            // Sixteen full memtables are merged by fours, and the four merged segments into one
+            for (int i = 0; i < MEMTABLE_SIZE * 16; i++) {
+                storage.saveAccountState(account(i, "1", false));
+            }
+            awaitBackground(storage);
+            awaitSegmentFiles(1);
+            Path large = Files.list(directory).filter(file -> file.toString().endsWith(".sst")).findFirst().get();
+            FileTime written = Files.getLastModifiedTime(large);
+
+            for (int i = 0; i < MEMTABLE_SIZE * 3; i++) {
+                storage.saveAccountState(account(i, "2", false));
+            }
+            awaitBackground(storage);
+            awaitSegmentFiles(4);
+            assertThat(Files.getLastModifiedTime(large)).isEqualTo(written);
+            for (int i = 0; i < MEMTABLE_SIZE * 16; i++) {
+                assertThat(storage.getAccountStateById(id(i)).get())
+                        .isEqualTo(account(i, i < MEMTABLE_SIZE * 3 ? "2" : "1", false));
+            }
+        }
+    }
+
+    /**
+     * Merged segment MUST be written to a file of its own, so readers still holding a merged segment
+     * never reopen a file with other records than its index describes, and MUST be found after reopen.
+     */
+    @Test
+    public void compaction_WritesMergedSegmentToNewFile() throws Exception {
+        List<Path> flushed;
+        try (LsmAccountStateStorage storage = openStorage()) {
+            for (int i = 0; i < MEMTABLE_SIZE * 3; i++) {
+                storage.saveAccountState(account(i, "1", false));
+            }
+            awaitBackground(storage);
+            awaitSegmentFiles(3);
+            flushed = segmentPaths();
+
+            for (int i = MEMTABLE_SIZE * 3; i < MEMTABLE_SIZE * 4; i++) {
+                storage.saveAccountState(account(i, "1", false));
+            }
+            awaitBackground(storage);
+            awaitSegmentFiles(1);
+            assertThat(flushed).containsNoneIn(segmentPaths());
+        }
+        try (LsmAccountStateStorage storage = openStorage()) {
+            for (int i = 0; i < MEMTABLE_SIZE * 4; i++) {
+                assertThat(storage.getAccountStateById(id(i)).get()).isEqualTo(account(i, "1", false));
+            }
+        }
+    }
+
+    /**
+     * Accounts which cannot be encoded MUST be rejected before they are stored,
+     * so storage keeps accepting, flushing and recovering other writes.
+     */
+    @Test
+    public void oversizedAccounts_RejectedAndStorageKeepsWorking() throws Exception {
+        String longId = Strings.repeat("\u0800", RecordCodec.MAX_FIELD_LENGTH / 3 + 1);
+        BigDecimal longBalance = new BigDecimal(BigInteger.ONE.shiftLeft(8 * RecordCodec.MAX_FIELD_LENGTH));
+        try (LsmAccountStateStorage storage = openStorage()) {
+            IllegalArgumentException idException = assertThrows(IllegalArgumentException.class,
+                    () -> storage.saveAccountState(AccountState.builder()
+                            .accountId(longId)
+                            .balance(BigDecimal.ONE)
+                            .build()));
+            assertThat(idException).hasMessageThat().isEqualTo("account_id");
+            IllegalArgumentException balanceException = assertThrows(IllegalArgumentException.class,
+                    () -> storage.saveAccountState(AccountState.from(account(0, "1", false))
+                            .balance(longBalance)
+                            .build()));
+            assertThat(balanceException).hasMessageThat().isEqualTo("balance");
+            assertThat(storage.getAccountStateById(longId).isPresent()).isFalse();
+            assertThat(storage.getAccountStateById(id(0)).isPresent()).isFalse();
+
+            writeAccounts(storage, "1");
+            awaitBackground(storage);
+        }
+        try (LsmAccountStateStorage storage = openStorage()) {
+            assertAccounts(storage, "1");
+        }
+    }
+
+    /**
+     * Writes of a transaction MUST be read by the transaction only until it completes, and MUST be dropped
+     * if it fails, so neither other readers nor a reopened storage see it half-applied.
+     */
+    @Test
+    public void failedTransaction_WritesDropped() throws Exception {
+        BigDecimal longBalance = new BigDecimal(BigInteger.ONE.shiftLeft(8 * RecordCodec.MAX_FIELD_LENGTH));
+        try (LsmAccountStateStorage storage = openStorage()) {
+            storage.saveAccountState(account(0, "1", false));
+            storage.saveAccountState(account(1, "1", false));
+
+            assertThrows(IllegalArgumentException.class, () -> storage.performTransaction(s -> {
+                s.saveAccountState(account(0, "2", false));
+                assertThat(s.getAccountStateById(id(0)).get()).isEqualTo(account(0, "2", false));
+                assertThat(s.getAccountStatesByIds(Collections.singletonList(id(0))).get(id(0)))
+                        .isEqualTo(account(0, "2", false));
+                assertThat(CompletableFuture.supplyAsync(() -> storage.getAccountStateById(id(0)).get()).join())
+                        .isEqualTo(account(0, "1", false));
+                // Receiver cannot be encoded after sender was written
+                return s.saveAccountState(AccountState.from(account(1, "1", false)).balance(longBalance).build());
+            }));
+            assertThat(storage.getAccountStateById(id(0)).get()).isEqualTo(account(0, "1", false));
+
+            storage.performTransaction(s -> s.saveAccountState(account(1, "3", false)));
+            assertThat(storage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "3", false));
+        }
+        try (LsmAccountStateStorage storage = openStorage()) {
+            assertThat(storage.getAccountStateById(id(0)).get()).isEqualTo(account(0, "1", false));
+            assertThat(storage.getAccountStateById(id(1)).get()).isEqualTo(account(1, "3", false));
+        }
+    }
+
+    /**
+     * Transfers and lookups over storage larger than a memtable MUST be at most twenty times slower
+     * than over in-memory storage, which keeps all accounts on heap.
+     */
+    @Test
+    @Tag("benchmark")
+    public void throughput_ComparedToInMemory() throws Exception {
+        InMemoryAccountStateStorage inMemory = new InMemoryAccountStateStorage(new TimeOrderedIdGenerator(0));
+        long inMemoryTransfers = transfersPerSecond(inMemory);
+        long inMemoryLookups = lookupsPerSecond(inMemory);
+        long lsmTransfers;
+        long lsmLookups;
+        try (LsmAccountStateStorage lsm = new LsmAccountStateStorage(new TimeOrderedIdGenerator(0),
+                directory.toString(), BENCHMARK_MEMTABLE_SIZE, false)) {
+            lsmTransfers = transfersPerSecond(lsm);
+            awaitBackground(lsm);
+            lsmLookups = lookupsPerSecond(lsm);
+        }
+
+        String message = String.format("per second: transfers in memory %s, LSM %s; lookups in memory %s, LSM %s",
+                inMemoryTransfers, lsmTransfers, inMemoryLookups, lsmLookups);
+        assertWithMessage(message).that(lsmTransfers * 20).isGreaterThan(inMemoryTransfers);
+        assertWithMessage(message).that(lsmLookups * 20).isGreaterThan(inMemoryLookups);
+    }
+
+    private LsmAccountStateStorage openStorage() {
+        return new LsmAccountStateStorage(new TimeOrderedIdGenerator(0), directory.toString(), MEMTABLE_SIZE, false);
+    }
+
+    /**
+     * Create benchmark accounts and measure random transfers between them, after as many warm up transfers.
+     */
+    private static long transfersPerSecond(AccountStateStorage storage) throws TransferServiceException {
+        for (int i = 0; i < BENCHMARK_ACCOUNTS; i++) {
+            storage.saveAccountState(account(i, "1000", false));
+        }
+        Random random = new Random(42);
+        long start = 0;
+        for (int i = -BENCHMARK_OPERATIONS; i < BENCHMARK_OPERATIONS; i++) {
+            if (i == 0) start = System.nanoTime();
+            TransferRejection rejection = storage.transferFunds(id(random.nextInt(BENCHMARK_ACCOUNTS)),
+                    id(random.nextInt(BENCHMARK_ACCOUNTS)), BigDecimal.ONE);
+            assertThat(rejection).isNull();
+        }
+        return BENCHMARK_OPERATIONS * 1_000_000_000L / (System.nanoTime() - start);
+    }
+
+    /**
+     * Measure random lookups of benchmark accounts, after as many warm up lookups.
+     */
+    private static long lookupsPerSecond(AccountStateStorage storage) {
+        Random random = new Random(42);
+        long start = 0;
+        for (int i = -BENCHMARK_OPERATIONS; i < BENCHMARK_OPERATIONS; i++) {
+            if (i == 0) start = System.nanoTime();
+            assertThat(storage.getAccountStateById(id(random.nextInt(BENCHMARK_ACCOUNTS))).isPresent()).isTrue();
+        }
+        return BENCHMARK_OPERATIONS * 1_000_000_000L / (System.nanoTime() - start);
+    }
+
+    private static void writeAccounts(LsmAccountStateStorage storage, String balance) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            storage.saveAccountState(account(i, balance, false));
+        }
+    }
+
+    private static void assertAccounts(LsmAccountStateStorage storage, String balance) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertThat(storage.getAccountStateById(id(i)).get()).isEqualTo(account(i, balance, false));
+        }
+    }
+
+    private static AccountState account(int i, String balance, boolean blocked) {
+        return AccountState.builder()
+                .accountId(id(i))
+                .balance(new BigDecimal(balance + "." + i))
+                .blocked(blocked)
+                .build();
+    }
+
+    private static String id(int i) {
+        return String.format("account-%05d", i);
+    }
+
+    private List<Path> logFiles() throws IOException {
+        return Files.list(directory).filter(file -> file.toString().endsWith(".log")).sorted()
+                .collect(Collectors.toList());
+    }
+
+    private List<Path> segmentPaths() throws IOException {
+        return Files.list(directory).filter(file -> file.toString().endsWith(".sst")).sorted()
+                .collect(Collectors.toList());
+    }
+
+    private long segmentFiles() throws IOException {
+        return Files.list(directory).filter(file -> file.toString().endsWith(".sst")).count();
+    }
+
+    private void awaitSegmentFiles(long expected) throws Exception {
+        for (int i = 0; i < 500 && segmentFiles() != expected; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(segmentFiles()).isEqualTo(expected);
+    }
+
+    /**
+     * Wait for pending flushes and compactions by waiting for the logs of frozen memtables to be removed.
+     */
+    private void awaitBackground(LsmAccountStateStorage storage) throws Exception {
+        for (int i = 0; i < 500; i++) {
+            long logs = Files.list(directory).filter(file -> file.toString().endsWith(".log")).count();
+            if (logs <= 1) return;
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package me.akrasenkov.transfer.warmup;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import me.akrasenkov.transfer.App;
+import me.akrasenkov.transfer.AppModule;
+import me.akrasenkov.transfer.lane.Lane;
+import me.akrasenkov.transfer.model.domain.AccountState;
+import me.akrasenkov.transfer.model.domain.ReadinessReport;
+import me.akrasenkov.transfer.provider.AccountStatsProvider;
+import me.akrasenkov.transfer.storage.AccountStateStorage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Unit tests suite for {@link Warmup}.
+ */
+public class WarmupTest {
+
+    /**
+     * Ports of test apps, apart from ones of API tests.
+     */
+    private static final int MEMORY_APP_PORT = 8084;
+    private static final int LSM_APP_PORT = 8085;
+    private static final int LSM_RESTARTED_APP_PORT = 8086;
+    private static final int BENCHMARK_APP_PORT = 8087;
+
+    /**
+     * Time limit of warmups checking only where they go, and of a warmup run until compilation is done.
+     */
+    private static final long SHORT_WARMUP_MILLIS = 200;
+    private static final long MAX_WARMUP_MILLIS = 30_000;
+
+    /**
+     * Warmup MUST mark the app ready only after it is done, go to a throwaway app rather than to the app,
+     * so no account is left in its storage, and record latencies of requests after that.
+     */
+    @Test
+    public void warmup_MarksReadyWithoutTouchingAppStorage() throws Exception {
+        Injector injector = createInjector(SHORT_WARMUP_MILLIS, new Properties());
+        Readiness readiness = injector.getInstance(Readiness.class);
+        assertThat(readiness.isReady()).isFalse();
+        assertThat(readiness.getReport().getStartupMillis()).isNull();
+
+        App app = new App(MEMORY_APP_PORT, injector);
+        try {
+            app.run();
+
+            ReadinessReport report = readiness.getReport();
+            assertThat(report.isReady()).isTrue();
+            assertThat(report.getWarmupOperations()).isGreaterThan(0L);
+            assertThat(report.getWarmupMillis()).isAtMost(report.getStartupMillis());
+            assertThat(injector.getInstance(Key.get(Lane.class, Names.named(AppModule.WRITE_LANE)))
+                    .getStats().getCompletedCount()).isEqualTo(0L);
+            assertThat(injector.getInstance(AccountStatsProvider.class).getAccountStats(0).getAccountCount())
+                    .isEqualTo(0L);
+
+            readiness.recordRequest(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(3));
+            assertThat(readiness.getReport().getFirstMinute().getCount()).isEqualTo(1L);
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * Warmup of an app configured with LSM storage MUST go through LSM storage of its own, so accounts
+     * of the app with any IDs, including ones warmup uses, stay as they are when the app is started again.
+     */
+    @Test
+    public void warmup_ThroughLsmStorageKeepsAppAccounts() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(AppModule.STORAGE, "lsm");
+        properties.setProperty(AppModule.LSM_DIRECTORY, Files.createTempDirectory("lsm").toString());
+        AccountState account = AccountState.builder()
+                .accountId("warmup-3")
+                .balance(new BigDecimal("100"))
+                .build();
+
+        for (int port : new int[]{LSM_APP_PORT, LSM_RESTARTED_APP_PORT}) {
+            Injector injector = createInjector(SHORT_WARMUP_MILLIS, properties);
+            App app = new App(port, injector);
+            try {
+                app.run();
+
+                assertThat(injector.getInstance(Readiness.class).getReport().getWarmupOperations())
+                        .isGreaterThan(0L);
+                AccountStateStorage storage = injector.getInstance(AccountStateStorage.class);
+                if (port == LSM_APP_PORT) {
+                    assertThat(storage.getAccountStateById(account.getAccountId()).isPresent()).isFalse();
+                    storage.saveAccountState(account);
+                } else {
+                    assertThat(storage.getAccountStateById(account.getAccountId()).get()).isEqualTo(account);
+                }
+                assertThat(injector.getInstance(AccountStatsProvider.class).getAccountStats(0).getAccountCount())
+                        .isEqualTo(1L);
+            } finally {
+                app.stop();
+            }
+        }
+    }
+
+    /**
+     * Warmup MUST run until the JIT compiler has compiled the request path, which takes thousands of operations,
+     * and stop once compilation is done rather than at the time limit.
+     */
+    @Test
+    @Tag("benchmark")
+    public void warmup_RunsUntilCompilationIsDone() throws Exception {
+        Injector injector = createInjector(MAX_WARMUP_MILLIS, new Properties());
+        App app = new App(BENCHMARK_APP_PORT, injector);
+        try {
+            app.run();
+
+            ReadinessReport report = injector.getInstance(Readiness.class).getReport();
+            String message = String.format("warmup of %s operations in %s ms",
+                    report.getWarmupOperations(), report.getWarmupMillis());
+            assertWithMessage(message).that(report.getWarmupOperations()).isAtLeast(5_000L);
+            assertWithMessage(message).that(report.getWarmupMillis()).isLessThan(MAX_WARMUP_MILLIS);
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * Disabled warmup MUST mark the app ready at once, without starting a throwaway app.
+     */
+    @Test
+    public void disabledWarmup_MarksReadyAtOnce() throws Exception {
+        Injector injector = createInjector(0, new Properties());
+        injector.getInstance(Warmup.class).run();
+
+        ReadinessReport report = injector.getInstance(Readiness.class).getReport();
+        assertThat(report.isReady()).isTrue();
+        assertThat(report.getWarmupOperations()).isEqualTo(0L);
+    }
+
+    private static Injector createInjector(long warmupMillis, Properties properties) {
+        Properties configuration = new Properties();
+        configuration.putAll(properties);
+        configuration.setProperty(AppModule.WARMUP_MILLIS, String.valueOf(warmupMillis));
+        return Guice.createInjector(new AppModule(configuration));
+    }
+}